@@ -0,0 +1,91 @@
+package at.codecomb.android.application.core;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = CircuitBreaker.java
+ * 
+ * This source is subject to Code Comb. 
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software 
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * stops requests to an unhealthy endpoint. After a number of consecutive failures the breaker
+ * opens and every request fails right away. Once the open duration has passed a single trial
+ * request is let through, its success closes the breaker again, its failure opens it once more.
+ * Only failures telling about the endpoint's health are counted.
+ * Guarded by the request lock of {@link Networker}.
+ * 
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+final class CircuitBreaker {
+	private static final int CLOSED = 0;
+	private static final int OPEN = 1;
+	private static final int HALF_OPEN = 2;
+
+	private int mState = CLOSED;
+	private int mFailures;
+	private long mOpenedAt;
+
+	/**
+	 * @param openDuration
+	 *            how long the breaker stays open in milliseconds
+	 * @return true if a request may be executed, false if it should fail right away
+	 */
+	boolean allowRequest(final long openDuration) {
+		switch (mState) {
+		case OPEN:
+			if (System.nanoTime() - mOpenedAt < TimeUnit.MILLISECONDS.toNanos(openDuration)) {
+				return false;
+			}
+			/* let one trial request through */
+			mState = HALF_OPEN;
+			return true;
+		case HALF_OPEN:
+			return false;
+		default:
+			return true;
+		}
+	}
+
+	void onSuccess() {
+		mState = CLOSED;
+		mFailures = 0;
+	}
+
+	/**
+	 * a request failed for a reason unrelated to the endpoint's health, a trial request is given up
+	 * so the next request becomes the trial
+	 */
+	void onIgnored() {
+		if (mState == HALF_OPEN) {
+			/* the open duration has passed already */
+			mState = OPEN;
+		}
+	}
+
+	void onFailure(final int failureThreshold) {
+		mFailures++;
+		if (mState == HALF_OPEN || mFailures >= failureThreshold) {
+			mState = OPEN;
+			mOpenedAt = System.nanoTime();
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package at.codecomb.android.application.core;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = CoalescingPolicy.java
+ * 
+ * This source is subject to Code Comb. 
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software 
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Defines which storing requests of one {@link RequestType} overwrite the same logical record.
+ * While a request is still waiting in the storing queue a newer request with an equal key replaces
+ * it, so only the newest content reaches {@link Database#executeStoringRequest(RequestType, Object)}.
+ * 
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+public interface CoalescingPolicy {
+	/**
+	 * extracts the key of the record the content will be stored to
+	 * 
+	 * @param requestType
+	 *            the requestType of the storing request
+	 * @param content
+	 *            the content to be stored
+	 * @return the key of the record or null if this request must not be coalesced
+	 */
+	public Object getCoalescingKey(final RequestType requestType, final Object content);
+}
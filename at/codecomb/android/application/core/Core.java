@@ -1,18 +1,26 @@
 package at.codecomb.android.application.core;
 
-import java.util.ArrayList;
-import java.util.Date;
 import java.util.HashMap;
-import java.util.List;
-import java.util.Map.Entry;
-import java.util.TreeMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.annotation.SuppressLint;
 import android.app.Application;
-import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
 import at.codecomb.android.application.listener.ApplicationListener;
+import at.codecomb.android.application.listener.StreamListener;
+import at.codecomb.util.concurrent.LimitedExecutor;
 
 
 /*
@@ -48,20 +56,28 @@ import at.codecomb.android.application.listener.ApplicationListener;
  */
 @SuppressLint("HandlerLeak")
 abstract public class Core extends Application {
-	private static final String REQUEST_TYPE = "REQUEST_TYPE";
-
 	private Database mDatabase;
 	private Networker mNetworker;
 
 	private static ListenerQueue mListenerQueue;
 
-	private TreeMap<RequestType, ApplicationListener> mListener;
+	/* outstanding requests per RequestType by their correlation id, the lowest id is the oldest */
+	private ConcurrentHashMap<RequestType, ConcurrentSkipListMap<Long, PendingRequest>> mPendingRequests;
+	private final AtomicLong mRequestIds = new AtomicLong();
 	private static Handler mHandler;
+	private static Executor mMainThreadExecutor;
+	/* threads shared by all lanes and delayed work of Database and Networker, idle threads are released */
+	private static ScheduledThreadPoolExecutor mWorkerExecutor;
+	/* the worker threads the lanes of Networker may occupy at once, limited by setMaxNetworkingThreads */
+	private static LimitedExecutor mNetworkingExecutor;
+	/* worker threads kept for the lanes of Database besides the ones of the networking lanes */
+	private static final int IO_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+	private static final long WORKER_KEEP_ALIVE = 30;
 
 	@Override
 	public void onCreate() {
 		super.onCreate();
-		mListener = new TreeMap<RequestType, ApplicationListener>();
+		mPendingRequests = new ConcurrentHashMap<RequestType, ConcurrentSkipListMap<Long, PendingRequest>>();
 		mListenerQueue = new ListenerQueue();
 		setupHandler();
 
@@ -71,14 +87,23 @@ abstract public class Core extends Application {
 	}
 
 	private void setupHandler() {
+		mMainThreadExecutor = new Executor() {
+			@Override
+			public void execute(final Runnable command) {
+				mHandler.post(command);
+			}
+		};
 		mHandler = new Handler() {
 			@Override
 			public void handleMessage(Message msg) {
-				RequestType requestType = null;
-				if (msg != null && (requestType = (RequestType) msg.getData().getSerializable(Core.REQUEST_TYPE)) != null) {
-					ApplicationListener listener = getListener(requestType);
-					if (listener != null) {
-						listener.requestCompleted(requestType);
+				if (msg != null && msg.obj instanceof PendingRequest) {
+					PendingRequest request = (PendingRequest) msg.obj;
+					/* only the first completion of an active request is delivered */
+					if (!request.discardIfInactive() && request.finish() && request.mListener != null) {
+						if (request.hasValue()) {
+							mListenerQueue.add(request);
+						}
+						request.mListener.requestCompleted(request.mRequestType);
 					}
 				}
 			}
@@ -95,9 +120,9 @@ abstract public class Core extends Application {
 	 * @return the achieved value
 	 */
 	public static Object getRequestValue(final ApplicationListener listener, final RequestType requestType) {
-		ListenerValue<?> returnValue = mListenerQueue.get(listener, requestType);
-		if (returnValue != null) {
-			return returnValue.getRequestValue();
+		PendingRequest request = mListenerQueue.get(listener, requestType);
+		if (request != null) {
+			return request.getValue();
 		}
 		return null;
 	}
@@ -114,6 +139,44 @@ abstract public class Core extends Application {
 		mDatabase._store(requestType, content);
 	}
 
+	/**
+	 * stores an object in the local database provided by the class extending {@link Database}
+	 * 
+	 * @param requestType
+	 *            defines what the Database should do
+	 * @param content
+	 *            the content to be stored
+	 * @param priority
+	 *            the priority of the request, see {@link Priority}. Storing requests of one
+	 *            requestType are still executed in the order they were queued.
+	 */
+	public <T> void store(final RequestType requestType, final T content, final int priority) {
+		mDatabase._store(requestType, content, priority);
+	}
+
+	/**
+	 * stores an object in the local database provided by the class extending {@link Database}, e.g.
+	 * to continue a {@link RequestFuture#thenRequest(RequestFuture.Continuation, Executor)} chain
+	 * once the result of a networking request has been written
+	 * 
+	 * @param requestType
+	 *            defines what the Database should do
+	 * @param content
+	 *            the content to be stored
+	 * @param priority
+	 *            the priority of the request, see {@link Priority}. Storing requests of one
+	 *            requestType are still executed in the order they were queued.
+	 * @return a future which is completed on the storing thread once the content, or a newer
+	 *         content for the same record superseding it, has been written. It fails if
+	 *         {@link Database#executeStoringRequest(RequestType, Object)} throws, cancelling it
+	 *         doesn't stop the write.
+	 */
+	public <T> RequestFuture<Void> storeAsync(final RequestType requestType, final T content, final int priority) {
+		RequestFuture<Void> future = new RequestFuture<Void>();
+		mDatabase._store(future, requestType, content, priority);
+		return future;
+	}
+
 	/**
 	 * loads an object from the local database provided by the class extending {@link Database}
 	 * 
@@ -121,10 +184,10 @@ abstract public class Core extends Application {
 	 *            the listener which will be informed once the object is loaded
 	 * @param requestType
 	 *            defines what the Database should do
+	 * @return handle to cancel the request or to give it a deadline
 	 */
-	public void load(final ApplicationListener listener, final RequestType requestType) {
-		addListener(requestType, listener);
-		mDatabase._load(requestType);
+	public RequestHandle load(final ApplicationListener listener, final RequestType requestType) {
+		return load(listener, requestType, null, Priority.DEFAULT);
 	}
 
 	/**
@@ -136,10 +199,29 @@ abstract public class Core extends Application {
 	 *            defines what the Database should do
 	 * @param reference
 	 *            a reference object if needed
+	 * @return handle to cancel the request or to give it a deadline
+	 */
+	public RequestHandle load(final ApplicationListener listener, final RequestType requestType, final Object reference) {
+		return load(listener, requestType, reference, Priority.DEFAULT);
+	}
+
+	/**
+	 * loads an object from the local database provided by the class extending {@link Database}
+	 * 
+	 * @param listener
+	 *            the listener which will be informed once the object is loaded
+	 * @param requestType
+	 *            defines what the Database should do
+	 * @param reference
+	 *            a reference object if needed
+	 * @param priority
+	 *            the priority of the request, see {@link Priority}
+	 * @return handle to cancel the request or to give it a deadline
 	 */
-	public void load(final ApplicationListener listener, final RequestType requestType, final Object reference) {
-		addListener(requestType, listener);
-		mDatabase._load(requestType, reference);
+	public RequestHandle load(final ApplicationListener listener, final RequestType requestType, final Object reference, final int priority) {
+		PendingRequest request = addPendingRequest(requestType, listener, null);
+		mDatabase._load(request, requestType, reference, priority);
+		return request;
 	}
 
 	/**
@@ -152,59 +234,297 @@ abstract public class Core extends Application {
 	 *            defines what the Networker should do
 	 * @param parameters
 	 *            the parameters for the given operation
+	 * @return handle to cancel the request or to give it a deadline
+	 */
+	public RequestHandle network(final ApplicationListener listener, final RequestType requestType, HashMap<String, Object> parameters) {
+		return network(listener, requestType, parameters, Priority.DEFAULT);
+	}
+
+	/**
+	 * performes a networking operation in the networking thread provided by the class extending
+	 * {@link Networker}
+	 * 
+	 * @param listener
+	 *            listener which will be informed once the operation is completed
+	 * @param requestType
+	 *            defines what the Networker should do
+	 * @param parameters
+	 *            the parameters for the given operation
+	 * @param priority
+	 *            the priority of the request, see {@link Priority}
+	 * @return handle to cancel the request or to give it a deadline
+	 */
+	public RequestHandle network(final ApplicationListener listener, final RequestType requestType, HashMap<String, Object> parameters, final int priority) {
+		PendingRequest request = addPendingRequest(requestType, listener, null);
+		mNetworker._network(request, requestType, parameters, priority);
+		return request;
+	}
+
+	/**
+	 * loads an object from the local database provided by the class extending {@link Database}
+	 * 
+	 * @param requestType
+	 *            defines what the Database should do
+	 * @param reference
+	 *            a reference object if needed
+	 * @param priority
+	 *            the priority of the request, see {@link Priority}
+	 * @return a future which is completed with the loaded object on the loading thread
+	 */
+	public <T> RequestFuture<T> loadAsync(final RequestType requestType, final Object reference, final int priority) {
+		RequestFuture<T> future = new RequestFuture<T>();
+		mDatabase._load(addPendingRequest(requestType, null, future), requestType, reference, priority);
+		return future;
+	}
+
+	/**
+	 * loads an object from the local database provided by the class extending {@link Database} and
+	 * hands it over page by page while it is still being loaded
+	 * 
+	 * @param listener
+	 *            the listener which will receive the pages on the main-thread
+	 * @param requestType
+	 *            defines what the Database should do
+	 * @param reference
+	 *            a reference object if needed
+	 * @param pageSize
+	 *            the amount of rows per page
+	 * @param priority
+	 *            the priority of the request, see {@link Priority}
+	 * @return handle to cancel the stream or to give it a deadline
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> RequestHandle loadStream(final StreamListener<T> listener, final RequestType requestType, final Object reference, final int pageSize, final int priority) {
+		if (pageSize < 1) {
+			throw new IllegalArgumentException("invalid page size " + pageSize);
+		}
+		RequestHandle handle = new RequestHandle(requestType);
+		LoadStream<T> stream = new LoadStream<T>(requestType, listener, mMainThreadExecutor, pageSize, handle);
+		mDatabase._loadStream((LoadStream<Object>) (LoadStream<?>) stream, requestType, reference, priority);
+		return handle;
+	}
+
+	/**
+	 * performes a networking operation in the networking thread provided by the class extending
+	 * {@link Networker}
+	 * 
+	 * @param requestType
+	 *            defines what the Networker should do
+	 * @param parameters
+	 *            the parameters for the given operation
+	 * @param priority
+	 *            the priority of the request, see {@link Priority}
+	 * @return a future which is completed with the achieved value on the networking thread
+	 */
+	public <T> RequestFuture<T> networkAsync(final RequestType requestType, HashMap<String, Object> parameters, final int priority) {
+		RequestFuture<T> future = new RequestFuture<T>();
+		mNetworker._network(addPendingRequest(requestType, null, future), requestType, parameters, priority);
+		return future;
+	}
+
+	/**
+	 * @return executor running the given commands on the main-thread, e.g. to continue a
+	 *         {@link RequestFuture} there
+	 */
+	public static Executor getMainThreadExecutor() {
+		return mMainThreadExecutor;
+	}
+
+	/**
+	 * returns the executor shared by all lanes of {@link Database} and {@link Networker}. Lanes are
+	 * serial tasks which only occupy a thread while they have work, delayed work is scheduled on it
+	 * as well. It has as many threads as the networking lanes may occupy at once plus a few more, so
+	 * blocking networking lanes can't starve the database lanes.
+	 * <p>
+	 * Database lanes must not block on the work of networking lanes, e.g. by calling
+	 * {@link RequestFuture#get()}, while networking lanes may wait for database requests but not for
+	 * other networking requests.
+	 * 
+	 * @return the executor shared by all lanes
 	 */
-	public void network(final ApplicationListener listener, final RequestType requestType, HashMap<String, Object> parameters) {
-		addListener(requestType, listener);
-		mNetworker._network(requestType, parameters);
+	static synchronized ScheduledExecutorService getWorkerExecutor() {
+		if (mWorkerExecutor == null) {
+			final int networkingThreads = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+			mWorkerExecutor = new ScheduledThreadPoolExecutor(IO_THREADS + networkingThreads, new ThreadFactory() {
+				private final AtomicInteger mThreads = new AtomicInteger();
+
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					return new Thread(runnable, "Core-Worker-" + mThreads.incrementAndGet());
+				}
+			});
+			/* don't keep threads alive while there is no work */
+			mWorkerExecutor.setKeepAliveTime(WORKER_KEEP_ALIVE, TimeUnit.SECONDS);
+			mWorkerExecutor.allowCoreThreadTimeOut(true);
+			mNetworkingExecutor = new LimitedExecutor(mWorkerExecutor, networkingThreads);
+		}
+		return mWorkerExecutor;
+	}
+
+	/**
+	 * returns the executor the lanes of {@link Networker} run on, which block while waiting for I/O.
+	 * It runs them on the shared worker threads, but never more of them at once than allowed by
+	 * {@link #setMaxNetworkingThreads(int)}.
+	 * 
+	 * @return executor running the networking lanes
+	 */
+	static synchronized Executor getNetworkingExecutor() {
+		getWorkerExecutor();
+		return mNetworkingExecutor;
+	}
+
+	/**
+	 * limits the worker threads the lanes of {@link Networker} may occupy at once. Networking lanes
+	 * wait for each other once the limit is reached, the lanes of {@link Database} are not affected.
+	 * 
+	 * @param maxNetworkingThreads
+	 *            the maximum amount of threads, twice the amount of cores but at least 4 by default
+	 */
+	protected void setMaxNetworkingThreads(final int maxNetworkingThreads) {
+		if (maxNetworkingThreads < 1) {
+			throw new IllegalArgumentException("invalid amount of networking threads " + maxNetworkingThreads);
+		}
+		synchronized (Core.class) {
+			getWorkerExecutor();
+			mWorkerExecutor.setCorePoolSize(IO_THREADS + maxNetworkingThreads);
+			mNetworkingExecutor.setLimit(maxNetworkingThreads);
+		}
 	}
 
 	/**
-	 * can be called from {@link Database} and {@link Networker} to send messages to the main-thread
+	 * drains the queued requests and releases the worker threads, e.g. before the process is
+	 * terminated. The requests of {@link Networker} are executed first, since they may store their
+	 * results, then the loading and at last the storing requests of {@link Database}. Requests
+	 * waiting for a retry fail right away, durable requests which haven't been executed stay in the
+	 * outbox. Further requests are rejected with an {@link IllegalStateException}.
+	 * 
+	 * @param timeout
+	 *            the maximum time to wait for the requests
+	 * @param unit
+	 *            the unit of the timeout
+	 * @return true if all requests have been drained, false if the timeout elapsed before
+	 * @throws InterruptedException
+	 *             if the calling thread has been interrupted while waiting
+	 */
+	public boolean shutdown(final long timeout, final TimeUnit unit) throws InterruptedException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		boolean terminated = mNetworker.shutdown(deadline);
+		terminated &= mDatabase.shutdown(deadline);
+
+		ScheduledThreadPoolExecutor executor;
+		synchronized (Core.class) {
+			executor = mWorkerExecutor;
+			mWorkerExecutor = null;
+			mNetworkingExecutor = null;
+		}
+		if (executor != null) {
+			/* retries and batch wakeups still scheduled have nothing left to do */
+			executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+			executor.shutdown();
+			terminated &= executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+		return terminated;
+	}
+
+	/**
+	 * can be called from {@link Database} and {@link Networker} to send messages to the main-thread.
+	 * Since the request isn't known, the oldest outstanding request of the requestType which isn't
+	 * executed by another thread is completed.
 	 * 
 	 * @param message
 	 *            the message which will be handled
 	 */
 	public void sendMessage(final RequestType requestType) {
-		Message message = Message.obtain();
-		Bundle bundle = new Bundle();
-		bundle.putSerializable(Core.REQUEST_TYPE, requestType);
-		message.setData(bundle);
-		
+		PendingRequest request = getOldestPendingRequest(requestType);
+		if (request != null) {
+			sendMessage(request);
+		}
+	}
+
+	/* completes the given request on the main-thread, a future is completed right away */
+	void sendMessage(final PendingRequest request) {
+		if (request.discardIfInactive() || !request.answer()) {
+			return;
+		}
+		if (request.mFuture != null) {
+			if (request.finish()) {
+				request.mFuture.completeWithObject(request.hasValue() ? request.getValue() : null);
+			}
+			return;
+		}
+
+		/* taken from the message pool, recycled by the Looper after handleMessage */
+		Message message = mHandler.obtainMessage();
+		message.obj = request;
 		mHandler.sendMessage(message);
 	}
 
 	/**
-	 * stores a value achieved by completing a request will be stored with the Listener as key
+	 * stores a value achieved by completing a request will be stored with the Listener as key. Since
+	 * the request isn't known, the value belongs to the oldest outstanding request of the
+	 * requestType which isn't executed by another thread.
 	 * 
 	 * @param requestValue
 	 *            the achieved value
 	 */
 	public <T> void storeRequestValue(final RequestType requestType, final T requestValue) {
-		mListenerQueue.add(getListenerReference(requestType), new ListenerValue<T>(requestType, requestValue));
+		PendingRequest request = getOldestPendingRequest(requestType);
+		if (request != null) {
+			storeRequestValue(request, requestValue);
+		}
+	}
+
+	/* the value is handed over to the listener along with the completion message */
+	<T> void storeRequestValue(final PendingRequest request, final T requestValue) {
+		request.setValue(requestValue);
 	}
 
 	/* ------------------------------------- Baseconstruct ------------------------------------- */
 
-	private synchronized void addListener(final RequestType requestType, final ApplicationListener listener) {
-		if (listener != null) {
-			mListener.put(requestType, listener);
+	private PendingRequest addPendingRequest(final RequestType requestType, final ApplicationListener listener, final RequestFuture<?> future) {
+		ConcurrentSkipListMap<Long, PendingRequest> pendingRequests = mPendingRequests.get(requestType);
+		if (pendingRequests == null) {
+			pendingRequests = new ConcurrentSkipListMap<Long, PendingRequest>();
+			ConcurrentSkipListMap<Long, PendingRequest> existing = mPendingRequests.putIfAbsent(requestType, pendingRequests);
+			if (existing != null) {
+				pendingRequests = existing;
+			}
 		}
+		PendingRequest request = new PendingRequest(mRequestIds.incrementAndGet(), requestType, listener, future, pendingRequests);
+		pendingRequests.put(request.mId, request);
+		return request;
 	}
 
-	private synchronized ApplicationListener getListenerReference(final RequestType requestType) {
-		if (mListener.size() == 0) {
+	/*
+	 * fallback for completions which can't be correlated with their request, the caller doesn't
+	 * execute a request of the requestType, so requests executed by other threads are left to them
+	 */
+	private PendingRequest getOldestPendingRequest(final RequestType requestType) {
+		ConcurrentSkipListMap<Long, PendingRequest> pendingRequests = mPendingRequests.get(requestType);
+		if (pendingRequests == null) {
 			return null;
-		} else {
-			return mListener.get(requestType);
 		}
+		for (PendingRequest request : pendingRequests.values()) {
+			if (!request.mExecuting) {
+				return request;
+			}
+		}
+		return null;
 	}
 
-	private synchronized ApplicationListener getListener(final RequestType requestType) {
-		if (mListener.size() == 0) {
-			return null;
-		} else {
-			return mListener.remove(requestType);
+	/**
+	 * sets how many achieved values are kept until they are retrieved with
+	 * {@link #getRequestValue(ApplicationListener, RequestType)}, the oldest values are dropped
+	 * first
+	 * 
+	 * @param maxRequestValues
+	 *            the maximum amount of values kept, 20 by default
+	 */
+	protected void setMaxRequestValues(final int maxRequestValues) {
+		if (maxRequestValues < 1) {
+			throw new IllegalArgumentException("invalid amount of request values " + maxRequestValues);
 		}
+		mListenerQueue.setMaxQueueLength(maxRequestValues);
 	}
 
 	protected void setDatabase(final Database database) {
@@ -238,74 +558,77 @@ abstract public class Core extends Application {
 
 	/* ------------------------------------- value retrieving ------------------------------------- */
 
-	private class ListenerQueue {
+	/**
+	 * bounded store of the achieved values, indexed by listener and requestType. Once more values
+	 * than the bound are stored the oldest one is evicted, all operations are O(1).
+	 */
+	private static class ListenerQueue {
 		private static final int MAX_QUEUE_LENGTH = 20;
-		private HashMap<ApplicationListener, List<ListenerValue<?>>> mRequestValues;
+		private int mMaxQueueLength = MAX_QUEUE_LENGTH;
+		/* insertion ordered, so the eldest entry is the oldest value, the request carries the value */
+		private final LinkedHashMap<ListenerKey, PendingRequest> mRequestValues;
+		/* reused to look values up, only used while holding the lock */
+		private final ListenerKey mLookupKey = new ListenerKey(null, null);
 
 		public ListenerQueue() {
-			mRequestValues = new HashMap<ApplicationListener, List<ListenerValue<?>>>();
-		}
+			mRequestValues = new LinkedHashMap<ListenerKey, PendingRequest>(16, 0.75f, false) {
+				private static final long serialVersionUID = 1L;
 
-		private void removeOldestValue() {
-			List<ListenerValue<?>> correspondingList = null;
-			ListenerValue<?> oldestEntry = null;
-			for (Entry<ApplicationListener, List<ListenerValue<?>>> entry : mRequestValues.entrySet()) {
-				for (ListenerValue<?> value : entry.getValue()) {
-					if (oldestEntry == null) {
-						oldestEntry = value;
-						correspondingList = entry.getValue();
-					} else if (oldestEntry.getTimestamp() > value.getTimestamp()) {
-						oldestEntry = value;
-						correspondingList = entry.getValue();
-					}
+				@Override
+				protected boolean removeEldestEntry(final Map.Entry<ListenerKey, PendingRequest> eldest) {
+					return size() > mMaxQueueLength;
 				}
-			}
-			correspondingList.remove(oldestEntry);
+			};
 		}
 
-		public synchronized void add(final ApplicationListener listener, final ListenerValue<?> value) {
-			if (mRequestValues.size() > MAX_QUEUE_LENGTH) {
-				removeOldestValue();
+		public synchronized void setMaxQueueLength(final int maxQueueLength) {
+			mMaxQueueLength = maxQueueLength;
+			Iterator<ListenerKey> iterator = mRequestValues.keySet().iterator();
+			while (mRequestValues.size() > mMaxQueueLength) {
+				iterator.next();
+				iterator.remove();
 			}
+		}
 
-			List<ListenerValue<?>> values = null;
-			if ((values = mRequestValues.get(listener)) == null) {
-				values = new ArrayList<ListenerValue<?>>();
-				values.add(value);
-				mRequestValues.put(listener, values);
-			} else {
-				values.add(value);
-			}
+		public synchronized void add(final PendingRequest request) {
+			/* a newer value replaces the old one and counts as the youngest */
+			mLookupKey.set(request.mListener, request.mRequestType);
+			mRequestValues.remove(mLookupKey);
+			mRequestValues.put(new ListenerKey(request.mListener, request.mRequestType), request);
 		}
 
-		public synchronized ListenerValue<?> get(final ApplicationListener listener, final RequestType requestType) {
-			List<ListenerValue<?>> values = mRequestValues.remove(listener);
-			for (ListenerValue<?> value : values) {
-				if (value.requestType.equals(requestType)) {
-					return value;
-				}
-			}
-			return null;
+		public synchronized PendingRequest get(final ApplicationListener listener, final RequestType requestType) {
+			mLookupKey.set(listener, requestType);
+			return mRequestValues.remove(mLookupKey);
 		}
 	}
 
-	private class ListenerValue<T> {
+	private static final class ListenerKey {
+		private ApplicationListener listener;
 		private RequestType requestType;
-		private T requestValue;
-		private Date timestamp;
 
-		public ListenerValue(final RequestType requestType, final T requestValue) {
+		public ListenerKey(final ApplicationListener listener, final RequestType requestType) {
+			set(listener, requestType);
+		}
+
+		/* only used for the lookup key of ListenerQueue, keys in the map don't change */
+		private void set(final ApplicationListener listener, final RequestType requestType) {
+			this.listener = listener;
 			this.requestType = requestType;
-			this.requestValue = requestValue;
-			timestamp = new Date();
 		}
 
-		public T getRequestValue() {
-			return this.requestValue;
+		@Override
+		public boolean equals(final Object object) {
+			if (!(object instanceof ListenerKey)) {
+				return false;
+			}
+			ListenerKey other = (ListenerKey) object;
+			return requestType == other.requestType && (listener == null ? other.listener == null : listener.equals(other.listener));
 		}
 
-		public long getTimestamp() {
-			return timestamp.getTime();
+		@Override
+		public int hashCode() {
+			return 31 * (listener == null ? 0 : listener.hashCode()) + requestType.hashCode();
 		}
 	}
 }
@@ -1,10 +1,18 @@
 package at.codecomb.android.application.core;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import at.codecomb.android.application.listener.ApplicationListener;
-import at.codecomb.util.thread.PausableThread;
+import at.codecomb.android.application.listener.StreamListener;
+import at.codecomb.util.thread.Lane;
 
 /*
  * Copyright (c) 2013, All Rights Reserved, file = Core.java
@@ -41,49 +49,110 @@ import at.codecomb.util.thread.PausableThread;
  */
 abstract public class Database {
 	private static Core mCore;
+	private static final long BATCH_POLL_INTERVAL = TimeUnit.MILLISECONDS.toNanos(1);
+	/* passed as amount of loading threads to use one loading thread per available core */
+	public static final int LOADING_THREADS_PER_CORE = 0;
 
 	protected static void setCore(final Core core) {
 		mCore = core;
 	}
 
-	private PausableThread mStoringThread;
-	private final Object mStoringRequestLock = new Object();
-	private List<Tupling<RequestType, Object>> mStoringRequests;
+	/* lock-free queues, filled by any thread and only drained by the corresponding lane */
+	private Lane mStoringLane;
+	private final RequestQueue<Object> mStoringRequests;
+	/* coalescing of storing requests which overwrite the same record */
+	private final ConcurrentHashMap<RequestType, CoalescingPolicy> mCoalescingPolicies;
+	private final ConcurrentHashMap<Request.Key, Request<Object>> mPendingStoringRequests;
+	private final AtomicLong mCoalescedStoringRequests = new AtomicLong();
+	/* batching of storing requests, a batch size of 1 stores every request on its own */
+	private volatile int mStoringBatchSize = 1;
+	private volatile long mStoringBatchDelay = 0;
 
-	private PausableThread mLoadingThread;
-	private final Object mLoadingRequestLock = new Object();
-	private List<Tupling<RequestType, Object>> mLoadingRequests;
+	/* priorities of storing and loading requests */
+	private final PriorityScheduler mPriorityScheduler;
+
+	/* each loading lane drains its own queue */
+	private LoadingLane[] mLoadingLanes;
+	/* RequestTypes which need to be loaded in the order they were requested */
+	private final ConcurrentHashMap<RequestType, Boolean> mOrderedLoadingRequestTypes;
+	/* read-through cache in front of the loading requests, null if deactivated */
+	private volatile LoadingCache mLoadingCache;
+	/* the loading request currently executed by the calling thread */
+	private final ThreadLocal<Request<Object>> mCurrentLoadingRequest = new ThreadLocal<Request<Object>>();
+	/* set by shutdown, the loading lanes are drained before the storing lane */
+	private volatile boolean mLoadingShutdown;
+	private volatile boolean mStoringShutdown;
 
 	public Database() {
-		mStoringRequests = new ArrayList<Tupling<RequestType, Object>>();
-		mLoadingRequests = new ArrayList<Tupling<RequestType, Object>>();
-		setupThread();
+		this(1);
 	}
 
-	private void setupThread() {
-		mStoringThread = new PausableThread(true) {
-			@Override
-			public void work() {
-				if (hasStoringRequest()) {
-					Tupling<RequestType, Object> request = getStoringRequest();
-					executeStoringRequest(request.f, request.s);
-				}
-			}
-		};
-		mStoringThread.pauseThread();
-		mStoringThread.start();
+	/**
+	 * creates a Database using several loading threads, so a slow loading request only holds back the
+	 * requests queued on the same thread. The loading threads are lanes sharing the worker threads of
+	 * {@link Core}, they only occupy a thread while they have work.
+	 * 
+	 * @param loadingThreads
+	 *            the amount of loading threads, or {@link #LOADING_THREADS_PER_CORE}
+	 */
+	public Database(final int loadingThreads) {
+		if (loadingThreads < 0) {
+			throw new IllegalArgumentException("invalid amount of loading threads " + loadingThreads);
+		}
+		mStoringRequests = new RequestQueue<Object>();
+		mPriorityScheduler = new PriorityScheduler();
+		mCoalescingPolicies = new ConcurrentHashMap<RequestType, CoalescingPolicy>();
+		mPendingStoringRequests = new ConcurrentHashMap<Request.Key, Request<Object>>();
+		mOrderedLoadingRequestTypes = new ConcurrentHashMap<RequestType, Boolean>();
+		setupThread(loadingThreads == LOADING_THREADS_PER_CORE ? Runtime.getRuntime().availableProcessors() : loadingThreads);
+	}
 
-		mLoadingThread = new PausableThread(true) {
+	private void setupThread(final int loadingThreads) {
+		final Executor executor = Core.getWorkerExecutor();
+		mStoringLane = new Lane("io-store", executor) {
 			@Override
 			public void work() {
-				if (hasLoadingRequest()) {
-					Tupling<RequestType, Object> request = getLoadingRequest();
-					executeLoadingRequest(request.f, request.s);
+				while (hasStoringRequest()) {
+					if (mStoringBatchSize > 1) {
+						List<Tupling<RequestType, Object>> batch = getStoringBatch();
+						if (!batch.isEmpty()) {
+							RuntimeException failure = null;
+							try {
+								executeStoringBatch(batch);
+							} catch (RuntimeException e) {
+								failure = e;
+								throw e;
+							} finally {
+								for (Tupling<RequestType, Object> request : batch) {
+									invalidateLoadingCache(request.f);
+									storingRequestFinished((Request<Object>) request, failure);
+								}
+							}
+						}
+					} else {
+						Request<Object> request = getStoringRequest();
+						/* null if every queued request has been superseded */
+						if (request != null) {
+							RuntimeException failure = null;
+							try {
+								executeStoringRequest(request.f, request.s);
+							} catch (RuntimeException e) {
+								failure = e;
+								throw e;
+							} finally {
+								invalidateLoadingCache(request.f);
+								storingRequestFinished(request, failure);
+							}
+						}
+					}
 				}
 			}
 		};
-		mLoadingThread.pauseThread();
-		mLoadingThread.start();
+
+		mLoadingLanes = new LoadingLane[loadingThreads];
+		for (int i = 0; i < loadingThreads; i++) {
+			mLoadingLanes[i] = new LoadingLane(i, executor);
+		}
 	}
 
 	/* ------------------------------------- static Wrapper ------------------------------------- */
@@ -107,9 +176,39 @@ abstract public class Database {
 	 *            the listener which will be informed once the object is loaded
 	 * @param requestType
 	 *            defines what the Database should do
+	 * @return handle to cancel the request or to give it a deadline
 	 */
-	public static void load(final ApplicationListener listener, final RequestType requestType) {
-		mCore.load(listener, requestType);
+	public static RequestHandle load(final ApplicationListener listener, final RequestType requestType) {
+		return mCore.load(listener, requestType);
+	}
+
+	/**
+	 * stores an object in the local database provided by the class extending {@link Database}
+	 * 
+	 * @param requestType
+	 *            defines what the Database should do
+	 * @param content
+	 *            the content to be stored
+	 * @param priority
+	 *            the priority of the request, see {@link Priority}. Storing requests of one
+	 *            requestType are still executed in the order they were queued.
+	 */
+	public static <T> void store(final RequestType requestType, final T content, final int priority) {
+		mCore.store(requestType, content, priority);
+	}
+
+	/**
+	 * stores an object in the local database provided by the class extending {@link Database}
+	 * 
+	 * @param requestType
+	 *            defines what the Database should do
+	 * @param content
+	 *            the content to be stored
+	 * @return a future which is completed once the content has been written, see
+	 *         {@link Core#storeAsync(RequestType, Object, int)}
+	 */
+	public static <T> RequestFuture<Void> storeAsync(final RequestType requestType, final T content) {
+		return mCore.storeAsync(requestType, content, Priority.DEFAULT);
 	}
 
 	/**
@@ -121,63 +220,438 @@ abstract public class Database {
 	 *            defines what the Database should do
 	 * @param reference
 	 *            a reference object if needed
+	 * @return handle to cancel the request or to give it a deadline
+	 */
+	public static RequestHandle load(final ApplicationListener listener, final RequestType requestType, final Object reference) {
+		return mCore.load(listener, requestType, reference);
+	}
+
+	/**
+	 * loads an object from the local database provided by the class extending {@link Database}
+	 * 
+	 * @param listener
+	 *            the listener which will be informed once the object is loaded
+	 * @param requestType
+	 *            defines what the Database should do
+	 * @param reference
+	 *            a reference object if needed
+	 * @param priority
+	 *            the priority of the request, see {@link Priority}
+	 * @return handle to cancel the request or to give it a deadline
+	 */
+	public static RequestHandle load(final ApplicationListener listener, final RequestType requestType, final Object reference, final int priority) {
+		return mCore.load(listener, requestType, reference, priority);
+	}
+
+	/**
+	 * loads an object from the local database provided by the class extending {@link Database}
+	 * 
+	 * @param requestType
+	 *            defines what the Database should do
+	 * @param reference
+	 *            a reference object if needed
+	 * @return a future which is completed with the loaded object on the loading thread
 	 */
-	public static void load(final ApplicationListener listener, final RequestType requestType, final Object reference) {
-		mCore.load(listener, requestType, reference);
+	public static <T> RequestFuture<T> loadAsync(final RequestType requestType, final Object reference) {
+		return mCore.loadAsync(requestType, reference, Priority.DEFAULT);
+	}
+
+	/**
+	 * loads an object from the local database provided by the class extending {@link Database} and
+	 * hands it over page by page, see
+	 * {@link #executeStreamingRequest(RequestType, Object, LoadStream)}
+	 * 
+	 * @param listener
+	 *            the listener which will receive the pages on the main-thread
+	 * @param requestType
+	 *            defines what the Database should do
+	 * @param reference
+	 *            a reference object if needed
+	 * @param pageSize
+	 *            the amount of rows per page
+	 * @return handle to cancel the request or to give it a deadline
+	 */
+	public static <T> RequestHandle loadStream(final StreamListener<T> listener, final RequestType requestType, final Object reference, final int pageSize) {
+		return mCore.loadStream(listener, requestType, reference, pageSize, Priority.DEFAULT);
 	}
 
 	/* ------------------------------------- public methods ------------------------------------- */
 
 	protected <T> void _store(final RequestType requestType, final T content) {
-		addStoringRequest(requestType, content);
+		_store(requestType, content, Priority.DEFAULT);
+	}
+
+	protected <T> void _store(final RequestType requestType, final T content, final int priority) {
+		addStoringRequest(null, requestType, content, priority);
+	}
+
+	void _store(final RequestFuture<Void> future, final RequestType requestType, final Object content, final int priority) {
+		addStoringRequest(future, requestType, content, priority);
 	}
 
 	protected void _load(final RequestType requestType) {
-		addLoadingRequest(requestType, null);
+		_load(requestType, null);
 	}
 
 	protected void _load(final RequestType requestType, final Object reference) {
-		addLoadingRequest(requestType, reference);
+		_load(requestType, reference, Priority.DEFAULT);
+	}
+
+	protected void _load(final RequestType requestType, final Object reference, final int priority) {
+		_load(null, requestType, reference, priority);
+	}
+
+	void _loadStream(final LoadStream<Object> stream, final RequestType requestType, final Object reference, final int priority) {
+		if (mLoadingShutdown) {
+			throw new IllegalStateException("the Database has been shut down, " + requestType + " isn't loaded");
+		}
+		Request<Object> request = new Request<Object>(requestType, reference);
+		request.mStream = stream;
+		request.mOrdered = mOrderedLoadingRequestTypes.containsKey(requestType);
+		mPriorityScheduler.schedule(request, priority);
+		getLoadingLane(requestType).addRequest(request);
+	}
+
+	void _load(final PendingRequest pendingRequest, final RequestType requestType, final Object reference, final int priority) {
+		LoadingCache cache = mLoadingCache;
+		if (cache != null) {
+			Object value = cache.get(requestType, reference);
+			/* complete the request right away without passing the loading thread */
+			if (value != LoadingCache.MISS) {
+				if (pendingRequest != null) {
+					mCore.storeRequestValue(pendingRequest, value);
+					mCore.sendMessage(pendingRequest);
+				} else {
+					mCore.storeRequestValue(requestType, value);
+					mCore.sendMessage(requestType);
+				}
+				return;
+			}
+		}
+		addLoadingRequest(pendingRequest, requestType, reference, priority);
+	}
+
+	/**
+	 * activates the batched write-behind mode. Instead of handing over every storing request on its
+	 * own the storing thread collects all queued requests until either maxBatchSize requests have
+	 * been collected or maxBatchDelay milliseconds have passed since the first one was taken and
+	 * passes them to {@link #executeStoringBatch(List)} at once.
+	 * 
+	 * @param maxBatchSize
+	 *            the maximum amount of requests per batch, 1 deactivates batching
+	 * @param maxBatchDelay
+	 *            the maximum time in milliseconds to wait for further requests, 0 only collects
+	 *            what is already queued
+	 */
+	protected void setStoringBatch(final int maxBatchSize, final long maxBatchDelay) {
+		if (maxBatchSize < 1 || maxBatchDelay < 0) {
+			throw new IllegalArgumentException("invalid storing batch " + maxBatchSize + "/" + maxBatchDelay);
+		}
+		mStoringBatchDelay = maxBatchDelay;
+		mStoringBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * activates coalescing for every storing request of the given requestType, while a request is
+	 * still queued a newer request of the same requestType replaces it
+	 * 
+	 * @param requestType
+	 *            the requestType to be coalesced
+	 */
+	protected void setCoalescing(final RequestType requestType) {
+		setCoalescing(requestType, new CoalescingPolicy() {
+			@Override
+			public Object getCoalescingKey(final RequestType requestType, final Object content) {
+				return requestType;
+			}
+		});
+	}
+
+	/**
+	 * activates coalescing for storing requests of the given requestType, while a request is still
+	 * queued a newer request of the same requestType and an equal key replaces it
+	 * 
+	 * @param requestType
+	 *            the requestType to be coalesced
+	 * @param policy
+	 *            extracts the key of the record a request writes to, null deactivates coalescing
+	 */
+	protected void setCoalescing(final RequestType requestType, final CoalescingPolicy policy) {
+		if (policy == null) {
+			mCoalescingPolicies.remove(requestType);
+		} else {
+			mCoalescingPolicies.put(requestType, policy);
+		}
+	}
+
+	/**
+	 * activates the read-through cache in front of {@link #executeLoadingRequest(RequestType, Object)}.
+	 * Each value passed to {@link #sendMessage(RequestType, Object)} while executing a loading
+	 * request is cached with its requestType and reference, a following load with an equal reference
+	 * completes immediately. Queuing a storing request invalidates all cached values of its
+	 * requestType.
+	 * 
+	 * @param maxEntries
+	 *            the maximum amount of cached values, the least recently used ones are evicted
+	 *            first, 0 deactivates the cache
+	 */
+	protected void setLoadingCache(final int maxEntries) {
+		if (maxEntries < 0) {
+			throw new IllegalArgumentException("invalid loading cache size " + maxEntries);
+		}
+		mLoadingCache = maxEntries == 0 ? null : new LoadingCache(maxEntries);
+	}
+
+	/**
+	 * sets how long cached values of the given requestType stay valid, has to be called after
+	 * {@link #setLoadingCache(int)}
+	 * 
+	 * @param requestType
+	 *            the requestType the time to live applies to
+	 * @param timeToLive
+	 *            time to live in milliseconds, 0 keeps values until they are evicted or invalidated
+	 */
+	protected void setLoadingCacheTimeToLive(final RequestType requestType, final long timeToLive) {
+		LoadingCache cache = mLoadingCache;
+		if (cache == null) {
+			throw new IllegalStateException("the loading cache is not activated");
+		}
+		cache.setTimeToLive(requestType, timeToLive);
+	}
+
+	/**
+	 * removes all cached values of the given requestType, e.g. if the data has been changed without
+	 * a storing request
+	 * 
+	 * @param requestType
+	 *            the requestType to be invalidated
+	 */
+	protected void invalidateLoadingCache(final RequestType requestType) {
+		LoadingCache cache = mLoadingCache;
+		if (cache != null) {
+			cache.invalidate(requestType);
+		}
+	}
+
+	/**
+	 * sets the priority used for storing and loading requests of the given requestType if no
+	 * priority is passed along with the request
+	 * 
+	 * @param requestType
+	 *            the requestType
+	 * @param priority
+	 *            one of the priorities defined in {@link Priority}, or any other level
+	 */
+	protected void setDefaultPriority(final RequestType requestType, final int priority) {
+		mPriorityScheduler.setDefaultPriority(requestType, priority);
+	}
+
+	/**
+	 * sets how long a request has to wait to gain one priority level, 500 milliseconds by default
+	 * 
+	 * @param agingInterval
+	 *            the aging interval in milliseconds
+	 */
+	protected void setPriorityAging(final long agingInterval) {
+		mPriorityScheduler.setAgingInterval(agingInterval);
+	}
+
+	/**
+	 * defines whether loading requests of the given requestType have to be executed in the order
+	 * they were requested. Ordered requests of one requestType are always executed by the same
+	 * loading thread in the order they were requested regardless of their priority, unordered ones
+	 * are passed to the loading thread with the fewest pending requests.
+	 * 
+	 * @param requestType
+	 *            the requestType of the loading requests
+	 * @param ordered
+	 *            true = ordered, false = unordered (default)
+	 */
+	protected void setLoadingOrdered(final RequestType requestType, final boolean ordered) {
+		if (ordered) {
+			mOrderedLoadingRequestTypes.put(requestType, Boolean.TRUE);
+		} else {
+			mOrderedLoadingRequestTypes.remove(requestType);
+		}
+	}
+
+	/**
+	 * @return the amount of storing requests which have been dropped because a newer request for the
+	 *         same record was queued before they were executed
+	 */
+	public long getCoalescedStoringRequestCount() {
+		return mCoalescedStoringRequests.get();
+	}
+
+	/*
+	 * drains the loading lanes and then the storing lane, so values stored while loading are still
+	 * written. Further requests are rejected with an IllegalStateException. Returns false if the
+	 * lanes haven't terminated until the deadline, a System.nanoTime() value.
+	 */
+	boolean shutdown(final long deadline) throws InterruptedException {
+		mLoadingShutdown = true;
+		for (LoadingLane lane : mLoadingLanes) {
+			lane.shutdown();
+		}
+		boolean terminated = true;
+		for (LoadingLane lane : mLoadingLanes) {
+			terminated &= lane.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		mStoringShutdown = true;
+		mStoringLane.shutdown();
+		terminated &= mStoringLane.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+		return terminated;
 	}
 
 	/* ------------------------------------- private methods ------------------------------------- */
 
+	/* only called from the storing thread */
 	private boolean hasStoringRequest() {
-		synchronized (mStoringRequestLock) {
-			return !mStoringRequests.isEmpty();
+		return !mStoringRequests.isEmpty();
+	}
+
+	/* returns the next request which hasn't been superseded, only called from the storing thread */
+	private Request<Object> getStoringRequest() {
+		Request<Object> request;
+		while ((request = mStoringRequests.poll()) != null) {
+			if (request.mSuperseded) {
+				mCoalescedStoringRequests.incrementAndGet();
+			} else {
+				if (request.mCoalescingKey != null) {
+					/* from now on a newer request has to be queued on its own */
+					mPendingStoringRequests.remove(request.mCoalescingKey, request);
+				}
+				return request;
+			}
+		}
+		return null;
+	}
+
+	/* collects the next batch of storing requests, only called from the storing thread */
+	private List<Tupling<RequestType, Object>> getStoringBatch() {
+		final int batchSize = mStoringBatchSize;
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mStoringBatchDelay);
+		List<Tupling<RequestType, Object>> batch = new ArrayList<Tupling<RequestType, Object>>();
+
+		while (batch.size() < batchSize) {
+			Tupling<RequestType, Object> request = getStoringRequest();
+			if (request != null) {
+				batch.add(request);
+			} else if (!mStoringShutdown && System.nanoTime() < deadline) {
+				/* give other threads the chance to add to this batch, unless it's drained for shutdown */
+				LockSupport.parkNanos(BATCH_POLL_INTERVAL);
+			} else {
+				break;
+			}
 		}
+		return batch;
 	}
 
-	private boolean hasLoadingRequest() {
-		synchronized (mLoadingRequestLock) {
-			return !mLoadingRequests.isEmpty();
+	/* completes the futures of storeAsync once the request has been written, only called from the storing thread */
+	private static void storingRequestFinished(final Request<Object> request, final RuntimeException failure) {
+		if (request.mStoredFutures == null) {
+			return;
+		}
+		for (RequestFuture<Void> future : request.mStoredFutures) {
+			if (failure == null) {
+				future.complete(null);
+			} else {
+				future.fail(failure);
+			}
 		}
 	}
 
-	private Tupling<RequestType, Object> getStoringRequest() {
-		synchronized (mStoringRequestLock) {
-			return mStoringRequests.remove(0);
+	private void addStoringRequest(final RequestFuture<Void> future, final RequestType requestType, final Object content, final int priority) {
+		if (mStoringShutdown) {
+			throw new IllegalStateException("the Database has been shut down, " + requestType + " isn't stored");
+		}
+		Request<Object> request = new Request<Object>(requestType, content, getCoalescingKey(requestType, content));
+		if (future != null) {
+			request.mStoredFutures = new ArrayList<RequestFuture<Void>>(1);
+			request.mStoredFutures.add(future);
+		}
+		/* a stale value must never be written after a newer one */
+		request.mOrdered = true;
+		mPriorityScheduler.schedule(request, priority);
+		if (request.mCoalescingKey != null) {
+			/* the request still waiting for the same record is dropped once the storing thread reaches it */
+			Request<Object> superseded = mPendingStoringRequests.put(request.mCoalescingKey, request);
+			if (superseded != null) {
+				superseded.mSuperseded = true;
+				/* its futures are completed by this request, the list isn't changed once it is queued */
+				if (superseded.mStoredFutures != null) {
+					if (request.mStoredFutures == null) {
+						request.mStoredFutures = new ArrayList<RequestFuture<Void>>(superseded.mStoredFutures.size());
+					}
+					request.mStoredFutures.addAll(superseded.mStoredFutures);
+				}
+			}
 		}
+		/*
+		 * results of loads queued so far must not be served from the cache anymore, loads running
+		 * until the request has been written are invalidated once more by the storing lane
+		 */
+		invalidateLoadingCache(requestType);
+		mStoringRequests.offer(request);
+		mStoringLane.signal();
 	}
 
-	private Tupling<RequestType, Object> getLoadingRequest() {
-		synchronized (mLoadingRequestLock) {
-			return mLoadingRequests.remove(0);
+	private Request.Key getCoalescingKey(final RequestType requestType, final Object content) {
+		CoalescingPolicy policy = mCoalescingPolicies.get(requestType);
+		if (policy != null) {
+			Object key = policy.getCoalescingKey(requestType, content);
+			if (key != null) {
+				return new Request.Key(requestType, key);
+			}
 		}
+		return null;
 	}
 
-	private void addStoringRequest(final RequestType requestType, final Object content) {
-		synchronized (mStoringRequestLock) {
-			mStoringRequests.add(new Tupling<RequestType, Object>(requestType, content));
-			mStoringThread.resumeThread();
+	private void addLoadingRequest(final PendingRequest pendingRequest, final RequestType requestType, final Object content, final int priority) {
+		if (mLoadingShutdown) {
+			if (pendingRequest != null) {
+				pendingRequest.abandon();
+			}
+			throw new IllegalStateException("the Database has been shut down, " + requestType + " isn't loaded");
+		}
+		Request<Object> request = new Request<Object>(requestType, content);
+		if (pendingRequest != null) {
+			request.mPendingRequests = Collections.singletonList(pendingRequest);
 		}
+		request.mOrdered = mOrderedLoadingRequestTypes.containsKey(requestType);
+		mPriorityScheduler.schedule(request, priority);
+		LoadingCache cache = mLoadingCache;
+		if (cache != null) {
+			request.mCacheGeneration = cache.getGeneration(requestType);
+		}
+		getLoadingLane(requestType).addRequest(request);
 	}
 
-	private void addLoadingRequest(final RequestType requestType, final Object content) {
-		synchronized (mLoadingRequestLock) {
-			mLoadingRequests.add(new Tupling<RequestType, Object>(requestType, content));
-			mLoadingThread.resumeThread();
+	private LoadingLane getLoadingLane(final RequestType requestType) {
+		if (mLoadingLanes.length == 1 || mOrderedLoadingRequestTypes.containsKey(requestType)) {
+			return mLoadingLanes[requestType.ordinal() % mLoadingLanes.length];
+		}
+
+		LoadingLane leastBusy = mLoadingLanes[0];
+		for (int i = 1; i < mLoadingLanes.length && leastBusy.getPendingRequests() > 0; i++) {
+			if (mLoadingLanes[i].getPendingRequests() < leastBusy.getPendingRequests()) {
+				leastBusy = mLoadingLanes[i];
+			}
 		}
+		return leastBusy;
+	}
+
+	/**
+	 * can be called while executing a loading request to stop early if its result isn't needed
+	 * anymore
+	 * 
+	 * @return true if the loading request executed by the calling thread has been cancelled or has
+	 *         expired
+	 */
+	protected boolean isCancelled() {
+		Request<Object> request = mCurrentLoadingRequest.get();
+		return request != null && request.isCancelled();
 	}
 
 	/**
@@ -187,7 +661,14 @@ abstract public class Database {
 	 *            the requestType of the operation performed
 	 */
 	protected void sendMessage(final RequestType requestType) {
-		mCore.sendMessage(requestType);
+		List<PendingRequest> pendingRequests = getCurrentPendingRequests(requestType);
+		if (pendingRequests == null) {
+			mCore.sendMessage(requestType);
+		} else {
+			for (PendingRequest pendingRequest : pendingRequests) {
+				mCore.sendMessage(pendingRequest);
+			}
+		}
 	}
 
 	/**
@@ -199,8 +680,18 @@ abstract public class Database {
 	 *            the value obtained by performing the requested operation
 	 */
 	protected void sendMessage(final RequestType requestType, final Object requestValue) {
+		cacheRequestValue(requestType, requestValue);
 		storeRequestValue(requestType, requestValue);
-		mCore.sendMessage(requestType);
+		sendMessage(requestType);
+	}
+
+	/* caches the result of the loading request executed by the calling thread */
+	private void cacheRequestValue(final RequestType requestType, final Object requestValue) {
+		LoadingCache cache = mLoadingCache;
+		Request<Object> request = mCurrentLoadingRequest.get();
+		if (cache != null && request != null && request.f == requestType && request.mStream == null) {
+			cache.put(requestType, request.s, requestValue, request.mCacheGeneration);
+		}
 	}
 
 	/**
@@ -210,10 +701,136 @@ abstract public class Database {
 	 *            the achieved value
 	 */
 	protected <T> void storeRequestValue(final RequestType requestType, final T requestValue) {
-		mCore.storeRequestValue(requestType, requestValue);
+		Request<Object> request = mCurrentLoadingRequest.get();
+		if (request != null && request.f == requestType && request.mStream != null) {
+			/* a streaming request executed by executeLoadingRequest, the value becomes part of the stream */
+			request.mStream.emitValue(requestValue);
+			return;
+		}
+
+		List<PendingRequest> pendingRequests = getCurrentPendingRequests(requestType);
+		if (pendingRequests == null) {
+			mCore.storeRequestValue(requestType, requestValue);
+		} else {
+			for (PendingRequest pendingRequest : pendingRequests) {
+				mCore.storeRequestValue(pendingRequest, requestValue);
+			}
+		}
+	}
+
+	/*
+	 * returns the pending requests of Core completed by the loading request executed by the calling
+	 * thread, or null if the calling thread doesn't execute a loading request of the requestType
+	 */
+	private List<PendingRequest> getCurrentPendingRequests(final RequestType requestType) {
+		Request<Object> request = mCurrentLoadingRequest.get();
+		if (request == null || request.f != requestType) {
+			return null;
+		}
+		/* a stream is completed on its own once the request has been executed */
+		return request.mStream != null ? Collections.<PendingRequest> emptyList() : request.mPendingRequests;
+	}
+
+	/**
+	 * stores a whole batch of requests collected while the batched write-behind mode is active (see
+	 * {@link #setStoringBatch(int, long)}). Override this to wrap the batch into one transaction,
+	 * the default implementation calls {@link #executeStoringRequest(RequestType, Object)} for
+	 * each request in order.
+	 * 
+	 * @param requests
+	 *            the storing requests, the ones of each requestType in the order they were added
+	 */
+	protected void executeStoringBatch(final List<Tupling<RequestType, Object>> requests) {
+		for (Tupling<RequestType, Object> request : requests) {
+			executeStoringRequest(request.f, request.s);
+		}
 	}
 
 	abstract protected void executeStoringRequest(final RequestType requestType, final Object object);
 
 	abstract protected void executeLoadingRequest(final RequestType requestType, final Object reference);
+
+	/**
+	 * executes a streaming loading request, emitting the result row by row to the given stream. The
+	 * stream is completed once this method returns. Override this to produce large results
+	 * incrementally, the default implementation executes
+	 * {@link #executeLoadingRequest(RequestType, Object)} and emits the value passed to
+	 * {@link #sendMessage(RequestType, Object)}, a Collection row by row.
+	 * 
+	 * @param requestType
+	 *            defines what the Database should do
+	 * @param reference
+	 *            a reference object if needed
+	 * @param stream
+	 *            the stream to emit the rows to, emitting blocks while the listener is behind
+	 */
+	protected void executeStreamingRequest(final RequestType requestType, final Object reference, final LoadStream<Object> stream) {
+		executeLoadingRequest(requestType, reference);
+	}
+
+	/**
+	 * one of the loading lanes, executes the requests of its own queue one by one
+	 */
+	private class LoadingLane extends Lane {
+		private final RequestQueue<Object> mRequests = new RequestQueue<Object>();
+		/* requests queued or currently executed */
+		private final AtomicInteger mPendingRequests = new AtomicInteger();
+
+		private LoadingLane(final int index, final Executor executor) {
+			super("io-load-" + index, executor);
+		}
+
+		private void addRequest(final Request<Object> request) {
+			mPendingRequests.incrementAndGet();
+			mRequests.offer(request);
+			signal();
+		}
+
+		private int getPendingRequests() {
+			return mPendingRequests.get();
+		}
+
+		/* the fallback of Core leaves requests executed by this lane to it */
+		private void setExecuting(final List<PendingRequest> pendingRequests) {
+			if (pendingRequests != null) {
+				for (PendingRequest pendingRequest : pendingRequests) {
+					pendingRequest.mExecuting = true;
+				}
+			}
+		}
+
+		/* requests which haven't been completed by executing the loading request are dropped */
+		private void abandon(final List<PendingRequest> pendingRequests) {
+			if (pendingRequests != null) {
+				for (PendingRequest pendingRequest : pendingRequests) {
+					pendingRequest.abandon();
+				}
+			}
+		}
+
+		@Override
+		public void work() {
+			Request<Object> request;
+			while ((request = mRequests.poll()) != null) {
+				mCurrentLoadingRequest.set(request);
+				setExecuting(request.mPendingRequests);
+				try {
+					if (request.isCancelled()) {
+						/* nobody waits for the result anymore */
+					} else if (request.mStream != null) {
+						executeStreamingRequest(request.f, request.s, request.mStream);
+					} else {
+						executeLoadingRequest(request.f, request.s);
+					}
+				} finally {
+					if (request.mStream != null) {
+						request.mStream.complete();
+					}
+					abandon(request.mPendingRequests);
+					mCurrentLoadingRequest.remove();
+					mPendingRequests.decrementAndGet();
+				}
+			}
+		}
+	}
 }
@@ -0,0 +1,168 @@
+package at.codecomb.android.application.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+import at.codecomb.android.application.listener.StreamListener;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = LoadStream.java
+ * 
+ * This source is subject to Code Comb. 
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software 
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Passed to {@link Database#executeStreamingRequest(RequestType, Object, LoadStream)} to emit the
+ * result of a loading request row by row. Rows are collected in pages which are handed over to the
+ * {@link StreamListener} on the main-thread. Once the maximum amount of pages is waiting for the
+ * main-thread, emitting blocks the loading thread until the listener caught up, so neither the
+ * time to the first row nor the memory used grow with the size of the result.
+ * 
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+public class LoadStream<T> {
+	/* pages handed over to the main-thread but not yet delivered */
+	static final int MAX_PAGES_IN_FLIGHT = 2;
+
+	private final RequestType mRequestType;
+	private final StreamListener<T> mListener;
+	private final Executor mExecutor;
+	private final int mPageSize;
+	private final Semaphore mPagesInFlight;
+	private final RequestHandle mHandle;
+
+	/* only touched by the loading thread */
+	private List<T> mPage;
+	private boolean mCompleted;
+
+	LoadStream(final RequestType requestType, final StreamListener<T> listener, final Executor executor, final int pageSize, final RequestHandle handle) {
+		mRequestType = requestType;
+		mHandle = handle;
+		mListener = listener;
+		mExecutor = executor;
+		mPageSize = pageSize;
+		mPagesInFlight = new Semaphore(MAX_PAGES_IN_FLIGHT);
+		mPage = new ArrayList<T>(pageSize);
+	}
+
+	/**
+	 * @return true if the stream has been cancelled or has expired, further rows are discarded
+	 */
+	public boolean isCancelled() {
+		return !mHandle.isActive();
+	}
+
+	RequestHandle getHandle() {
+		return mHandle;
+	}
+
+	/**
+	 * adds a row to the stream, blocks if the listener hasn't caught up with the pages emitted so
+	 * far
+	 * 
+	 * @param row
+	 *            the next row of the result
+	 */
+	public void emit(final T row) {
+		if (mCompleted) {
+			throw new IllegalStateException("the stream has already been completed");
+		}
+		if (isCancelled()) {
+			return;
+		}
+		mPage.add(row);
+		if (mPage.size() >= mPageSize) {
+			flush();
+		}
+	}
+
+	/**
+	 * adds several rows to the stream, see {@link #emit(Object)}
+	 * 
+	 * @param rows
+	 *            the next rows of the result
+	 */
+	public void emitAll(final Collection<? extends T> rows) {
+		for (T row : rows) {
+			emit(row);
+		}
+	}
+
+	/**
+	 * hands over the rows emitted so far even if the page isn't full yet
+	 */
+	public void flush() {
+		if (mPage.isEmpty()) {
+			return;
+		}
+		if (isCancelled()) {
+			mPage.clear();
+			return;
+		}
+
+		final List<T> page = mPage;
+		mPage = new ArrayList<T>(mPageSize);
+		/* backpressure, wait till the main-thread delivered an earlier page */
+		mPagesInFlight.acquireUninterruptibly();
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (mHandle.isActive()) {
+						mListener.pageLoaded(mRequestType, page);
+					}
+				} finally {
+					mPagesInFlight.release();
+				}
+			}
+		});
+	}
+
+	/* called by the Database once the streaming request has been executed */
+	void complete() {
+		if (mCompleted) {
+			return;
+		}
+		flush();
+		mCompleted = true;
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (mHandle.isActive()) {
+					mListener.streamCompleted(mRequestType);
+				}
+			}
+		});
+	}
+
+	/* takes over a value passed to sendMessage by a Database not supporting streams */
+	@SuppressWarnings("unchecked")
+	void emitValue(final Object value) {
+		if (value instanceof Collection) {
+			emitAll((Collection<T>) value);
+		} else if (value != null) {
+			emit((T) value);
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package at.codecomb.android.application.core;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = LoadingCache.java
+ * 
+ * This source is subject to Code Comb. 
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software 
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * size bounded read-through cache for the results of {@link Database} loading requests. Entries are
+ * evicted in least recently used order, can expire after a time to live set per
+ * {@link RequestType} and are invalidated per RequestType once a storing request is queued and once
+ * more after it has been written, so a load executed in between can't leave a stale entry.
+ * Invalidating only increments the generation of the RequestType, entries of an older generation
+ * are dropped once they are looked up or evicted.
+ * 
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+class LoadingCache {
+	/* returned by get() if no valid entry exists, since null is a valid result */
+	static final Object MISS = new Object();
+
+	private final int mMaxEntries;
+	private final LinkedHashMap<Request.Key, CacheEntry> mEntries;
+	/* time to live in nanoseconds per RequestType, missing --> no expiration */
+	private final HashMap<RequestType, Long> mTimeToLive;
+	/*
+	 * incremented on each invalidation per RequestType ordinal, entries and results of loads of an
+	 * older generation are not valid anymore
+	 */
+	private final long[] mGenerations;
+
+	LoadingCache(final int maxEntries) {
+		mMaxEntries = maxEntries;
+		mTimeToLive = new HashMap<RequestType, Long>();
+		mGenerations = new long[RequestType.values().length];
+		/* access ordered, so the eldest entry is the least recently used one */
+		mEntries = new LinkedHashMap<Request.Key, CacheEntry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<Request.Key, CacheEntry> eldest) {
+				return size() > mMaxEntries;
+			}
+		};
+	}
+
+	synchronized void setTimeToLive(final RequestType requestType, final long timeToLive) {
+		if (timeToLive > 0) {
+			mTimeToLive.put(requestType, timeToLive * 1000000L);
+		} else {
+			mTimeToLive.remove(requestType);
+		}
+	}
+
+	/**
+	 * @return the cached result or {@link #MISS}
+	 */
+	synchronized Object get(final RequestType requestType, final Object reference) {
+		Request.Key key = new Request.Key(requestType, reference);
+		CacheEntry entry = mEntries.get(key);
+		if (entry == null) {
+			return MISS;
+		}
+		if (entry.mGeneration != mGenerations[requestType.ordinal()] || entry.mExpiration != 0 && entry.mExpiration - System.nanoTime() <= 0) {
+			mEntries.remove(key);
+			return MISS;
+		}
+		return entry.mValue;
+	}
+
+	synchronized long getGeneration(final RequestType requestType) {
+		return mGenerations[requestType.ordinal()];
+	}
+
+	/**
+	 * caches a loaded result, unless the RequestType has been invalidated since the load was queued
+	 */
+	synchronized void put(final RequestType requestType, final Object reference, final Object value, final long generation) {
+		if (generation != mGenerations[requestType.ordinal()]) {
+			return;
+		}
+
+		Long timeToLive = mTimeToLive.get(requestType);
+		long expiration = 0;
+		if (timeToLive != null) {
+			/* 0 is reserved for entries which never expire */
+			expiration = (System.nanoTime() + timeToLive) | 1;
+		}
+		mEntries.put(new Request.Key(requestType, reference), new CacheEntry(value, expiration, generation));
+	}
+
+	/**
+	 * invalidates all entries of the RequestType in O(1), called twice per storing request
+	 */
+	synchronized void invalidate(final RequestType requestType) {
+		mGenerations[requestType.ordinal()]++;
+	}
+
+	private static final class CacheEntry {
+		private final Object mValue;
+		private final long mExpiration;
+		/* generation of the RequestType the entry has been cached in */
+		private final long mGeneration;
+
+		private CacheEntry(final Object value, final long expiration, final long generation) {
+			mValue = value;
+			mExpiration = expiration;
+			mGeneration = generation;
+		}
+	}
+}
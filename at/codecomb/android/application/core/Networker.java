@@ -1,11 +1,22 @@
 package at.codecomb.android.application.core;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
 
 import at.codecomb.android.application.listener.ApplicationListener;
-import at.codecomb.util.thread.PausableThread;
+import at.codecomb.util.thread.Lane;
 
 /*
  * Copyright (c) 2013, All Rights Reserved, file = Core.java
@@ -46,27 +57,106 @@ abstract public class Networker {
 		mCore = core;
 	}
 
-	private PausableThread mNetworkingThread;
+	private Lane[] mNetworkingLanes;
 	private final Object mRequestLock = new Object();
-	private List<Tupling<RequestType, HashMap<String, Object>>> mRequests;
+	/* ordered by priority, see Priority */
+	private TreeSet<Request<HashMap<String, Object>>> mRequests;
+	private final PriorityScheduler mPriorityScheduler;
+
+	/* concurrency limits, all guarded by mRequestLock */
+	private final HashMap<RequestType, Integer> mMaxRequestsInFlightPerType;
+	private final HashMap<RequestType, Integer> mRequestsInFlightPerType;
+	private int mMaxRequestsInFlightPerHost = Integer.MAX_VALUE;
+	private final HashMap<String, Integer> mRequestsInFlightPerHost;
+
+	/* deduplication of equal requests, guarded by mRequestLock */
+	private final HashMap<RequestType, Boolean> mDeduplicatedRequestTypes;
+	private final HashMap<Request.Key, Request<HashMap<String, Object>>> mUncompletedRequests;
+	/* retries and circuit breakers, guarded by mRequestLock */
+	private final HashMap<RequestType, RetryPolicy> mRetryPolicies;
+	private final HashMap<Object, CircuitBreaker> mCircuitBreakers;
+	private int mCircuitBreakerThreshold;
+	private long mCircuitBreakerOpenDuration;
+	/* requests waiting for their retry to be scheduled, guarded by mRequestLock */
+	private final Set<Request<HashMap<String, Object>>> mRetryingRequests;
+	/* set by shutdown, no requests are accepted or retried anymore, guarded by mRequestLock */
+	private boolean mShutdown;
+	/* durable requests, guarded by mRequestLock */
+	private Outbox mOutbox;
+	private final HashMap<RequestType, Boolean> mDurableRequestTypes;
+	/* requests of Core waiting for durable requests which are only in the outbox */
+	private final HashMap<Long, List<PendingRequest>> mStoredPendingRequests;
+	/* disk cache of get requests, null if disabled */
+	private volatile ResponseCache mResponseCache;
+	/* batching of requests per requestType, guarded by mRequestLock */
+	private final HashMap<RequestType, Batching> mBatching;
+	/* System.nanoTime() a batching window is closed and the threads are resumed, 0 if none */
+	private long mBatchWakeup;
+	/* marks results of a batch which have already been sent by their requests */
+	private static final Object SENT = new Object();
+	/* the batch currently executed by the calling thread */
+	private final ThreadLocal<List<Request<HashMap<String, Object>>>> mCurrentBatch = new ThreadLocal<List<Request<HashMap<String, Object>>>>();
+	/* the request currently executed by the calling thread */
+	private final ThreadLocal<Request<HashMap<String, Object>>> mCurrentRequest = new ThreadLocal<Request<HashMap<String, Object>>>();
 
 	public Networker() {
-		mRequests = new ArrayList<Tupling<RequestType, HashMap<String, Object>>>();
-		setupThread();
+		this(1);
 	}
 
-	private void setupThread() {
-		mNetworkingThread = new PausableThread(true) {
-			@Override
-			public void work() {
-				if (hasRequest()) {
-					Tupling<RequestType, HashMap<String, Object>> request = getRequest();
-					executeRequest(request.f, request.s);
+	/**
+	 * creates a Networker which performs up to maxRequestsInFlight networking operations at the same
+	 * time, each one on its own networking thread. With more than one networking thread
+	 * {@link #executeRequest(RequestType, HashMap) executeRequest} has to be thread-safe. The
+	 * networking threads are lanes sharing the worker threads of {@link Core}, they only occupy a
+	 * thread while they have work. {@link #executeRequest(RequestType, HashMap) executeRequest} may
+	 * wait for database requests, but must not wait for other networking requests.
+	 * 
+	 * @param maxRequestsInFlight
+	 *            the amount of networking threads
+	 */
+	public Networker(final int maxRequestsInFlight) {
+		if (maxRequestsInFlight < 1) {
+			throw new IllegalArgumentException("invalid amount of requests in flight " + maxRequestsInFlight);
+		}
+		mRequests = new TreeSet<Request<HashMap<String, Object>>>();
+		mPriorityScheduler = new PriorityScheduler();
+		mMaxRequestsInFlightPerType = new HashMap<RequestType, Integer>();
+		mRequestsInFlightPerType = new HashMap<RequestType, Integer>();
+		mRequestsInFlightPerHost = new HashMap<String, Integer>();
+		mDeduplicatedRequestTypes = new HashMap<RequestType, Boolean>();
+		mUncompletedRequests = new HashMap<Request.Key, Request<HashMap<String, Object>>>();
+		mRetryPolicies = new HashMap<RequestType, RetryPolicy>();
+		mCircuitBreakers = new HashMap<Object, CircuitBreaker>();
+		mRetryingRequests = Collections.newSetFromMap(new IdentityHashMap<Request<HashMap<String, Object>>, Boolean>());
+		mDurableRequestTypes = new HashMap<RequestType, Boolean>();
+		mStoredPendingRequests = new HashMap<Long, List<PendingRequest>>();
+		mBatching = new HashMap<RequestType, Batching>();
+		setupThread(maxRequestsInFlight);
+	}
+
+	private void setupThread(final int threads) {
+		mNetworkingLanes = new Lane[threads];
+		for (int i = 0; i < threads; i++) {
+			mNetworkingLanes[i] = new Lane("net-" + i, Core.getNetworkingExecutor()) {
+				@Override
+				public void work() {
+					/* drain what this thread is allowed to execute, other threads take the rest */
+					Request<HashMap<String, Object>> request;
+					while ((request = getRequest()) != null) {
+						mCurrentRequest.set(request);
+						boolean retrying = false;
+						try {
+							retrying = execute(request);
+						} finally {
+							mCurrentRequest.remove();
+							requestFinished(request, retrying);
+						}
+					}
+					/* take over durable requests which had to wait in the outbox */
+					resumeOutbox(false);
 				}
-			}
-		};
-		mNetworkingThread.pauseThread();
-		mNetworkingThread.start();
+			};
+		}
 	}
 
 	/* ------------------------------------- public methods ------------------------------------- */
@@ -81,33 +171,923 @@ abstract public class Networker {
 	 *            defines what the Networker should do
 	 * @param parameters
 	 *            the parameters for the given operation
+	 * @return handle to cancel the request or to give it a deadline
 	 */
-	public static void network(final ApplicationListener listener, final RequestType requestType, HashMap<String, Object> parameters) {
-		mCore.network(listener, requestType, parameters);
+	public static RequestHandle network(final ApplicationListener listener, final RequestType requestType, HashMap<String, Object> parameters) {
+		return mCore.network(listener, requestType, parameters);
+	}
+
+	/**
+	 * performes a networking operation in the networking thread provided by the class extending
+	 * {@link Networker}
+	 * 
+	 * @param listener
+	 *            listener which will be informed once the operation is completed
+	 * @param requestType
+	 *            defines what the Networker should do
+	 * @param parameters
+	 *            the parameters for the given operation
+	 * @param priority
+	 *            the priority of the request, see {@link Priority}
+	 * @return handle to cancel the request or to give it a deadline
+	 */
+	public static RequestHandle network(final ApplicationListener listener, final RequestType requestType, HashMap<String, Object> parameters, final int priority) {
+		return mCore.network(listener, requestType, parameters, priority);
+	}
+
+	/**
+	 * performes a networking operation in the networking thread provided by the class extending
+	 * {@link Networker}
+	 * 
+	 * @param requestType
+	 *            defines what the Networker should do
+	 * @param parameters
+	 *            the parameters for the given operation
+	 * @return a future which is completed with the achieved value on the networking thread
+	 */
+	public static <T> RequestFuture<T> networkAsync(final RequestType requestType, HashMap<String, Object> parameters) {
+		return mCore.networkAsync(requestType, parameters, Priority.DEFAULT);
 	}
 
 	protected void _network(final RequestType requestType, HashMap<String, Object> parameters) {
-		addRequest(requestType, parameters);
-		mNetworkingThread.resumeThread();
+		_network(requestType, parameters, Priority.DEFAULT);
+	}
+
+	protected void _network(final RequestType requestType, HashMap<String, Object> parameters, final int priority) {
+		_network(null, requestType, parameters, priority);
+	}
+
+	void _network(final PendingRequest pendingRequest, final RequestType requestType, HashMap<String, Object> parameters, final int priority) {
+		if (addRequest(pendingRequest, requestType, parameters, priority)) {
+			resumeThreads();
+		}
+	}
+
+	/**
+	 * activates or deactivates the deduplication of requests of the given requestType. While a
+	 * request is queued or executed every further request with the same requestType and equal
+	 * parameters is attached to it instead of being executed again, all attached listeners are
+	 * informed with the same result. A request attached with a higher priority raises the priority of
+	 * the queued one. The parameters must not be changed after passing them to
+	 * {@link #network(ApplicationListener, RequestType, HashMap) network}.
+	 * 
+	 * @param requestType
+	 *            the requestType, its requests should be free of side effects
+	 * @param deduplicated
+	 *            true = equal requests are executed once, false = every request is executed
+	 *            (default)
+	 */
+	protected void setDeduplication(final RequestType requestType, final boolean deduplicated) {
+		synchronized (mRequestLock) {
+			if (deduplicated) {
+				mDeduplicatedRequestTypes.put(requestType, Boolean.TRUE);
+			} else {
+				mDeduplicatedRequestTypes.remove(requestType);
+			}
+		}
+	}
+
+	/**
+	 * sets the priority used for requests of the given requestType if no priority is passed along
+	 * with the request
+	 * 
+	 * @param requestType
+	 *            the requestType
+	 * @param priority
+	 *            one of the priorities defined in {@link Priority}, or any other level
+	 */
+	protected void setDefaultPriority(final RequestType requestType, final int priority) {
+		mPriorityScheduler.setDefaultPriority(requestType, priority);
+	}
+
+	/**
+	 * sets how long a request has to wait to gain one priority level, 500 milliseconds by default
+	 * 
+	 * @param agingInterval
+	 *            the aging interval in milliseconds
+	 */
+	protected void setPriorityAging(final long agingInterval) {
+		mPriorityScheduler.setAgingInterval(agingInterval);
+	}
+
+	/**
+	 * limits how many requests of the given requestType are performed at the same time
+	 * 
+	 * @param requestType
+	 *            the requestType to be limited
+	 * @param maxRequestsInFlight
+	 *            the maximum amount of concurrent requests, 0 removes the limit
+	 */
+	protected void setMaxRequestsInFlight(final RequestType requestType, final int maxRequestsInFlight) {
+		synchronized (mRequestLock) {
+			if (maxRequestsInFlight > 0) {
+				mMaxRequestsInFlightPerType.put(requestType, maxRequestsInFlight);
+			} else {
+				mMaxRequestsInFlightPerType.remove(requestType);
+			}
+		}
+	}
+
+	/**
+	 * limits how many requests to the same host are performed at the same time, the host of a
+	 * request is defined by {@link #getHost(RequestType, HashMap)}
+	 * 
+	 * @param maxRequestsInFlight
+	 *            the maximum amount of concurrent requests per host, 0 removes the limit
+	 */
+	protected void setMaxRequestsInFlightPerHost(final int maxRequestsInFlight) {
+		synchronized (mRequestLock) {
+			mMaxRequestsInFlightPerHost = maxRequestsInFlight > 0 ? maxRequestsInFlight : Integer.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * defines the host a request will connect to, used to limit the concurrent requests per host.
+	 * Override this if {@link #setMaxRequestsInFlightPerHost(int)} is used.
+	 * 
+	 * @param requestType
+	 *            defines what the Networker should do
+	 * @param parameters
+	 *            the parameters for the given operation
+	 * @return the host or null if the request isn't limited per host
+	 */
+	protected String getHost(final RequestType requestType, final HashMap<String, Object> parameters) {
+		return null;
+	}
+
+	/**
+	 * executes failed requests of the given requestType again. A request is retried if
+	 * {@link #executeRequest(RequestType, HashMap) executeRequest} throws a retryable
+	 * {@link NetworkingException}, the delay doubles with every attempt and is randomized to spread
+	 * the load. No networking thread is blocked while waiting.
+	 * 
+	 * @param requestType
+	 *            the requestType to be retried
+	 * @param maxRetries
+	 *            how often a request is executed again after its first attempt, 0 disables retries
+	 * @param initialBackoff
+	 *            the maximum delay before the first retry in milliseconds
+	 * @param maxBackoff
+	 *            the upper bound of the delay in milliseconds
+	 */
+	protected void setRetry(final RequestType requestType, final int maxRetries, final long initialBackoff, final long maxBackoff) {
+		RetryPolicy policy = maxRetries > 0 ? new RetryPolicy(maxRetries, initialBackoff, maxBackoff) : null;
+		synchronized (mRequestLock) {
+			if (policy != null) {
+				mRetryPolicies.put(requestType, policy);
+			} else {
+				mRetryPolicies.remove(requestType);
+			}
+		}
+	}
+
+	/**
+	 * stops executing requests to an unhealthy endpoint, the endpoint is the host defined by
+	 * {@link #getHost(RequestType, HashMap)} or the requestType if there is no host. After the given
+	 * amount of consecutive failures every request to the endpoint fails right away until the open
+	 * duration has passed, then a single trial request decides whether the endpoint is healthy again.
+	 * Only retryable failures like timeouts, I/O errors or server errors count, a request failing
+	 * with a non-retryable {@link NetworkingException}, e.g. a client error, says nothing about the
+	 * endpoint's health.
+	 * 
+	 * @param failureThreshold
+	 *            consecutive failures opening the circuit breaker, 0 disables it (default)
+	 * @param openDuration
+	 *            how long requests fail right away in milliseconds
+	 */
+	protected void setCircuitBreaker(final int failureThreshold, final long openDuration) {
+		if (failureThreshold < 0 || openDuration < 0) {
+			throw new IllegalArgumentException("invalid circuit breaker " + failureThreshold + ", " + openDuration);
+		}
+		synchronized (mRequestLock) {
+			mCircuitBreakerThreshold = failureThreshold;
+			mCircuitBreakerOpenDuration = openDuration;
+			mCircuitBreakers.clear();
+		}
+	}
+
+	/**
+	 * collects requests of the given requestType and executes them together with
+	 * {@link #executeBatch(RequestType, List) executeBatch}, e.g. as one multi-get or bulk call.
+	 * Requests to the same host are batched once the batch is full or the first of them waited for
+	 * the given window. Each request still completes its own listener or future.
+	 * 
+	 * @param requestType
+	 *            the requestType to be batched
+	 * @param maxBatchSize
+	 *            the maximum amount of requests per batch, 1 or less disables batching (default)
+	 * @param window
+	 *            how long the first request of a batch waits for further requests in milliseconds
+	 */
+	protected void setBatching(final RequestType requestType, final int maxBatchSize, final long window) {
+		if (window < 0) {
+			throw new IllegalArgumentException("invalid batching window " + window);
+		}
+		synchronized (mRequestLock) {
+			if (maxBatchSize > 1) {
+				mBatching.put(requestType, new Batching(maxBatchSize, TimeUnit.MILLISECONDS.toNanos(window)));
+			} else {
+				mBatching.remove(requestType);
+			}
+		}
+	}
+
+	/**
+	 * keeps durable requests in an outbox file, so they survive the death of the process and don't
+	 * pile up in memory while the network is unavailable. Pending requests of the outbox are queued
+	 * again right away. The parameters of durable requests have to be serializable, requests of the
+	 * same requestType and equal parameters aren't deduplicated. A durable request is executed at
+	 * least once, it stays in the outbox until it succeeded, failed with a non-retryable
+	 * {@link NetworkingException} or has been cancelled.
+	 * <p>
+	 * A durable request is written to the file by the thread adding it, before
+	 * {@link Core#network(ApplicationListener, RequestType, HashMap) network} returns. The file is
+	 * not synced to the disk for every request, so a crash of the whole device may still lose the
+	 * latest ones. If the file can't be written, durable requests are held in memory only.
+	 * 
+	 * @param file
+	 *            the outbox file, e.g. in {@link android.content.Context#getFilesDir()}
+	 * @param maxRequestsInMemory
+	 *            how many durable requests are held in memory at most, the others wait in the file
+	 * @throws IOException
+	 *             if the outbox file can't be opened
+	 */
+	protected void setOutbox(final File file, final int maxRequestsInMemory) throws IOException {
+		Outbox outbox = new Outbox(file, maxRequestsInMemory, Core.getNetworkingExecutor());
+		synchronized (mRequestLock) {
+			if (mOutbox != null) {
+				throw new IllegalStateException("the outbox has already been set");
+			}
+			mOutbox = outbox;
+		}
+		resumeOutbox(true);
+	}
+
+	/**
+	 * defines whether requests of the given requestType are kept in the outbox, see
+	 * {@link #setOutbox(File, int)}
+	 * 
+	 * @param requestType
+	 *            the requestType
+	 * @param durable
+	 *            true = requests survive the death of the process, false = requests are held in
+	 *            memory only (default)
+	 */
+	protected void setDurable(final RequestType requestType, final boolean durable) {
+		synchronized (mRequestLock) {
+			if (durable) {
+				mDurableRequestTypes.put(requestType, Boolean.TRUE);
+			} else {
+				mDurableRequestTypes.remove(requestType);
+			}
+		}
+	}
+
+	/**
+	 * queues the durable requests again which failed since the outbox has been set or resumed, e.g.
+	 * once the network is available again
+	 */
+	protected void resumeOutbox() {
+		resumeOutbox(true);
+	}
+
+	/**
+	 * caches the responses of {@link #get(RequestType, URL)} on disk, honoring their Cache-Control,
+	 * Expires, ETag and Last-Modified headers
+	 * 
+	 * @param directory
+	 *            the directory holding the cached responses, e.g. in
+	 *            {@link android.content.Context#getCacheDir()}
+	 * @param maxSize
+	 *            the maximum size of all cached bodies in bytes, the least recently used responses
+	 *            are removed first
+	 * @throws IOException
+	 *             if the directory can't be created
+	 */
+	protected void setResponseCache(final File directory, final long maxSize) throws IOException {
+		mResponseCache = new ResponseCache(directory, maxSize);
+	}
+
+	/**
+	 * @param requestType
+	 *            the requestType
+	 * @return the hits, misses and revalidations of get requests of the given requestType, or null
+	 *         if there is no response cache
+	 */
+	protected ResponseCache.Statistics getResponseCacheStatistics(final RequestType requestType) {
+		ResponseCache cache = mResponseCache;
+		return cache != null ? cache.getStatistics(requestType) : null;
+	}
+
+	/**
+	 * performs a HTTP GET request, can be called from
+	 * {@link #executeRequest(RequestType, HashMap) executeRequest}. The response is served from the
+	 * response cache while it is fresh and revalidated with a conditional request afterwards, see
+	 * {@link #setResponseCache(File, long)}.
+	 * 
+	 * @param requestType
+	 *            the requestType the request is performed for
+	 * @param url
+	 *            the url to be requested
+	 * @return the body of the response
+	 * @throws NetworkingException
+	 *             if the request failed or the response isn't successful
+	 */
+	protected byte[] get(final RequestType requestType, final URL url) throws NetworkingException {
+		HttpURLConnection connection;
+		try {
+			connection = (HttpURLConnection) url.openConnection();
+			prepareConnection(requestType, connection);
+		} catch (IOException e) {
+			throw new NetworkingException("GET " + url + " failed", e);
+		}
+
+		ResponseCache cache = mResponseCache;
+		return cache != null ? cache.fetch(requestType, connection) : ResponseCache.fetch(connection);
+	}
+
+	/**
+	 * called before a request of {@link #get(RequestType, URL)} is performed, e.g. to set timeouts
+	 * or headers
+	 * 
+	 * @param requestType
+	 *            the requestType the request is performed for
+	 * @param connection
+	 *            the connection which isn't connected yet
+	 * @throws IOException
+	 *             if the connection can't be prepared
+	 */
+	protected void prepareConnection(final RequestType requestType, final HttpURLConnection connection) throws IOException {
+	}
+
+	/**
+	 * called on the networking thread once a request failed for good, after that the listeners are
+	 * informed without a value and futures fail with the given exception
+	 * 
+	 * @param requestType
+	 *            defines what the Networker should have done
+	 * @param parameters
+	 *            the parameters of the failed operation
+	 * @param exception
+	 *            the failure of the last attempt
+	 */
+	protected void onRequestFailed(final RequestType requestType, final HashMap<String, Object> parameters, final NetworkingException exception) {
 	}
 
 	/* ------------------------------------- private methods ------------------------------------- */
 
-	private boolean hasRequest() {
+	/* queues durable requests which are only in the outbox as long as there is room in memory */
+	private void resumeOutbox(final boolean resume) {
+		Outbox outbox;
 		synchronized (mRequestLock) {
-			return !mRequests.isEmpty();
+			/* requests still in the outbox are replayed after the next start */
+			outbox = mShutdown ? null : mOutbox;
 		}
+		if (outbox == null) {
+			return;
+		}
+		List<Outbox.Entry> entries = outbox.loadAll(resume);
+		if (entries.isEmpty()) {
+			return;
+		}
+
+		List<Request<HashMap<String, Object>>> requests = new ArrayList<Request<HashMap<String, Object>>>(entries.size());
+		for (Outbox.Entry entry : entries) {
+			Request<HashMap<String, Object>> request = new Request<HashMap<String, Object>>(entry.mRequestType, entry.mParameters);
+			request.mOutboxId = entry.mId;
+			request.mHost = getHost(entry.mRequestType, entry.mParameters);
+			mPriorityScheduler.schedule(request, entry.mPriority);
+			requests.add(request);
+		}
+		synchronized (mRequestLock) {
+			for (Request<HashMap<String, Object>> request : requests) {
+				if (mShutdown) {
+					/* shut down while reading them, they stay in the outbox */
+					outbox.defer(request.mOutboxId);
+					continue;
+				}
+				List<PendingRequest> pendingRequests = mStoredPendingRequests.remove(request.mOutboxId);
+				request.mPendingRequests = pendingRequests != null ? pendingRequests : new ArrayList<PendingRequest>(1);
+				mRequests.add(request);
+			}
+		}
+		resumeThreads();
 	}
 
-	private void addRequest(final RequestType requestType, final HashMap<String, Object> parameters) {
+	/*
+	 * drains the queued requests, requests waiting for a retry fail right away. Further requests are
+	 * rejected with an IllegalStateException, durable requests which haven't been executed stay in
+	 * the outbox. Returns false if the lanes haven't terminated until the deadline, a
+	 * System.nanoTime() value.
+	 */
+	boolean shutdown(final long deadline) throws InterruptedException {
+		List<Request<HashMap<String, Object>>> retrying;
+		List<List<PendingRequest>> stored;
+		Outbox outbox;
+		synchronized (mRequestLock) {
+			mShutdown = true;
+			retrying = new ArrayList<Request<HashMap<String, Object>>>(mRetryingRequests);
+			mRetryingRequests.clear();
+			stored = new ArrayList<List<PendingRequest>>(mStoredPendingRequests.values());
+			mStoredPendingRequests.clear();
+			outbox = mOutbox;
+		}
+		NetworkingException exception = new NetworkingException("the Networker has been shut down");
+		for (Request<HashMap<String, Object>> request : retrying) {
+			failRequest(request, exception);
+			releaseRequest(request, false);
+		}
+		for (List<PendingRequest> pendingRequests : stored) {
+			for (PendingRequest pendingRequest : pendingRequests) {
+				pendingRequest.abandon();
+			}
+		}
+
+		for (Lane lane : mNetworkingLanes) {
+			lane.shutdown();
+		}
+		boolean terminated = true;
+		for (Lane lane : mNetworkingLanes) {
+			terminated &= lane.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		/* requests the lanes couldn't take, e.g. because of their concurrency limits */
+		List<Request<HashMap<String, Object>>> remaining;
 		synchronized (mRequestLock) {
-			mRequests.add(new Tupling<RequestType, HashMap<String, Object>>(requestType, parameters));
+			remaining = new ArrayList<Request<HashMap<String, Object>>>(mRequests);
+			mRequests.clear();
+		}
+		for (Request<HashMap<String, Object>> request : remaining) {
+			failRequest(request, exception);
+			releaseRequest(request, false);
 		}
+		if (outbox != null) {
+			terminated &= outbox.close(deadline);
+		}
+		return terminated;
 	}
 
-	private Tupling<RequestType, HashMap<String, Object>> getRequest() {
+	private void resumeThreads() {
+		for (Lane lane : mNetworkingLanes) {
+			lane.signal();
+		}
+	}
+
+	/* executes the request guarded by its circuit breaker, returns true if it will be retried */
+	private boolean execute(final Request<HashMap<String, Object>> request) {
+		List<Request<HashMap<String, Object>>> batch = request.mBatch;
+		request.mBatch = null;
+		if (!allowRequest(request)) {
+			NetworkingException exception = new NetworkingException("circuit breaker open for " + getEndpoint(request), null, false);
+			request.mRetryLater = true;
+			failRequest(request, exception);
+			if (batch != null) {
+				for (Request<HashMap<String, Object>> batched : batch) {
+					batched.mRetryLater = true;
+					failRequest(batched, exception);
+					releaseRequest(batched, false);
+				}
+			}
+			return false;
+		}
+		if (batch != null) {
+			batch.add(0, request);
+			return executeBatched(batch);
+		}
+
+		NetworkingException failure = null;
+		try {
+			executeRequest(request.f, request.s);
+			return false;
+		} catch (NetworkingException e) {
+			failure = e;
+			return retryOrFail(request, e);
+		} catch (RuntimeException e) {
+			/* counts for the circuit breaker, but executing the request again won't help */
+			failure = new NetworkingException("executing " + request.f + " failed", e);
+			failRequest(request, failure);
+			return false;
+		} finally {
+			recordResult(request, failure);
+		}
+	}
+
+	/* executes a batch, the first request is the one taken from the queue, returns true if it will be retried */
+	private boolean executeBatched(final List<Request<HashMap<String, Object>>> batch) {
+		Request<HashMap<String, Object>> first = batch.get(0);
+		List<HashMap<String, Object>> parameters = new ArrayList<HashMap<String, Object>>(batch.size());
+		for (Request<HashMap<String, Object>> request : batch) {
+			parameters.add(request.s);
+		}
+
+		List<?> results = null;
+		NetworkingException failure = null;
+		/* true --> executeBatch itself failed, the batch isn't executed again */
+		boolean broken = false;
+		mCurrentBatch.set(batch);
+		try {
+			results = executeBatch(first.f, parameters);
+			if (results != null && results.size() != batch.size()) {
+				throw new IllegalStateException("executeBatch returned " + results.size() + " results for " + batch.size() + " requests");
+			}
+		} catch (NetworkingException e) {
+			failure = e;
+		} catch (RuntimeException e) {
+			failure = new NetworkingException("executing a batch of " + first.f + " failed", e);
+			results = null;
+			broken = true;
+		} finally {
+			mCurrentBatch.remove();
+			mCurrentRequest.set(first);
+			recordResult(first, failure);
+		}
+
+		/* fan the results out, a result which is a NetworkingException fails its request only */
+		boolean retrying = false;
+		int i = 0;
+		try {
+			for (; i < batch.size(); i++) {
+				Request<HashMap<String, Object>> request = batch.get(i);
+				boolean retryingRequest = false;
+				Object result = results != null ? results.get(i) : null;
+				if (broken) {
+					failRequest(request, failure);
+				} else if (failure != null || result instanceof NetworkingException) {
+					retryingRequest = retryOrFail(request, failure != null ? failure : (NetworkingException) result);
+				} else if (results != null && result != SENT) {
+					mCurrentRequest.set(request);
+					sendMessage(request.f, result);
+				}
+				if (i == 0) {
+					retrying = retryingRequest;
+				} else {
+					releaseRequest(request, retryingRequest);
+				}
+			}
+		} finally {
+			/* requests left behind by an exception are released without result, the first one by the lane */
+			for (int j = Math.max(i, 1); j < batch.size(); j++) {
+				releaseRequest(batch.get(j), false);
+			}
+			mCurrentRequest.set(first);
+		}
+		return retrying;
+	}
+
+	private boolean retryOrFail(final Request<HashMap<String, Object>> request, final NetworkingException exception) {
+		RetryPolicy policy;
+		boolean cancelled;
 		synchronized (mRequestLock) {
-			return mRequests.remove(0);
+			/* no more retries while shutting down */
+			policy = mShutdown ? null : mRetryPolicies.get(request.f);
+			cancelled = request.isCancelled();
+		}
+		if (cancelled) {
+			return false;
+		}
+		if (exception.isRetryable() && policy != null && policy.canRetry(request.mRetries)) {
+			long backoff = policy.getBackoff(request.mRetries++);
+			boolean retrying;
+			synchronized (mRequestLock) {
+				/* shutdown may have started since the policy has been read */
+				retrying = !mShutdown && mRetryingRequests.add(request);
+			}
+			if (!retrying) {
+				failRequest(request, exception);
+				return false;
+			}
+			Core.getWorkerExecutor().schedule(new Runnable() {
+				@Override
+				public void run() {
+					/* the request keeps its aged priority, unless shutdown has failed it meanwhile */
+					synchronized (mRequestLock) {
+						if (!mRetryingRequests.remove(request)) {
+							return;
+						}
+						mRequests.add(request);
+					}
+					resumeThreads();
+				}
+			}, backoff, TimeUnit.NANOSECONDS);
+			return true;
+		}
+		failRequest(request, exception);
+		return false;
+	}
+
+	/* completes the request without a value, futures fail with the given exception */
+	private void failRequest(final Request<HashMap<String, Object>> request, final NetworkingException exception) {
+		List<PendingRequest> pendingRequests;
+		synchronized (mRequestLock) {
+			request.mRetryLater |= exception.isRetryable();
+			if (request.mDeduplicationKey != null) {
+				mUncompletedRequests.remove(request.mDeduplicationKey);
+				request.mDeduplicationKey = null;
+			}
+			pendingRequests = new ArrayList<PendingRequest>(request.mPendingRequests);
+		}
+
+		onRequestFailed(request.f, request.s, exception);
+		for (PendingRequest pendingRequest : pendingRequests) {
+			if (pendingRequest.mFuture == null) {
+				mCore.sendMessage(pendingRequest);
+			} else if (pendingRequest.finish()) {
+				pendingRequest.mFuture.fail(exception);
+			}
+		}
+	}
+
+	/* the host of the request or its requestType */
+	private static Object getEndpoint(final Request<HashMap<String, Object>> request) {
+		return request.mHost != null ? request.mHost : request.f;
+	}
+
+	private boolean allowRequest(final Request<HashMap<String, Object>> request) {
+		synchronized (mRequestLock) {
+			CircuitBreaker breaker = mCircuitBreakerThreshold > 0 ? mCircuitBreakers.get(getEndpoint(request)) : null;
+			return breaker == null || breaker.allowRequest(mCircuitBreakerOpenDuration);
+		}
+	}
+
+	/*
+	 * counts the result of an executed request for the circuit breaker, failure is null if the
+	 * request succeeded. Rejections by the breaker itself never get here.
+	 */
+	private void recordResult(final Request<HashMap<String, Object>> request, final NetworkingException failure) {
+		synchronized (mRequestLock) {
+			if (mCircuitBreakerThreshold == 0) {
+				return;
+			}
+			Object endpoint = getEndpoint(request);
+			CircuitBreaker breaker = mCircuitBreakers.get(endpoint);
+			if (failure == null) {
+				if (breaker != null) {
+					breaker.onSuccess();
+					mCircuitBreakers.remove(endpoint);
+				}
+			} else if (!failure.isRetryable()) {
+				/* not the endpoint's fault, only give up the trial request */
+				if (breaker != null) {
+					breaker.onIgnored();
+				}
+			} else {
+				if (breaker == null) {
+					breaker = new CircuitBreaker();
+					mCircuitBreakers.put(endpoint, breaker);
+				}
+				breaker.onFailure(mCircuitBreakerThreshold);
+			}
+		}
+	}
+
+	/* returns false if the request has been attached to an equal uncompleted one */
+	private boolean addRequest(final PendingRequest pendingRequest, final RequestType requestType, final HashMap<String, Object> parameters, final int priority) {
+		Request<HashMap<String, Object>> request = new Request<HashMap<String, Object>>(requestType, parameters);
+		request.mPendingRequests = new ArrayList<PendingRequest>(1);
+		if (pendingRequest != null) {
+			request.mPendingRequests.add(pendingRequest);
+		}
+		request.mHost = getHost(requestType, parameters);
+		mPriorityScheduler.schedule(request, priority);
+
+		/* serialize and write durable requests without holding the lock */
+		Outbox outbox;
+		synchronized (mRequestLock) {
+			if (mShutdown) {
+				if (pendingRequest != null) {
+					pendingRequest.abandon();
+				}
+				throw new IllegalStateException("the Networker has been shut down, " + requestType + " isn't executed");
+			}
+			outbox = mDurableRequestTypes.containsKey(requestType) ? mOutbox : null;
+		}
+		long id = outbox != null ? outbox.add(Outbox.encode(requestType, parameters, priority)) : 0;
+
+		synchronized (mRequestLock) {
+			Batching batching = mBatching.get(requestType);
+			if (batching != null) {
+				request.mBatchDeadline = System.nanoTime() + batching.mWindow;
+			}
+			if (outbox != null) {
+				/* a request which couldn't be written is held in memory only */
+				if (id != 0) {
+					if (!outbox.load(id)) {
+						/* the request waits in the outbox until there is room in memory */
+						mStoredPendingRequests.put(id, request.mPendingRequests);
+						return false;
+					}
+					request.mOutboxId = id;
+				}
+			} else if (mDeduplicatedRequestTypes.containsKey(requestType)) {
+				Request.Key key = new Request.Key(requestType, parameters);
+				Request<HashMap<String, Object>> uncompleted = mUncompletedRequests.get(key);
+				if (uncompleted != null) {
+					if (pendingRequest != null) {
+						pendingRequest.mExecuting = uncompleted.mExecuting;
+						uncompleted.mPendingRequests.add(pendingRequest);
+					}
+					if (request.mSchedulingTime - uncompleted.mSchedulingTime < 0) {
+						/* the queued request gets the higher priority, it is sorted by it so it has to be queued again */
+						boolean queued = mRequests.remove(uncompleted);
+						uncompleted.mSchedulingTime = request.mSchedulingTime;
+						if (queued) {
+							mRequests.add(uncompleted);
+						}
+					}
+					return false;
+				}
+				request.mDeduplicationKey = key;
+				mUncompletedRequests.put(key, request);
+			}
+			mRequests.add(request);
+		}
+		return true;
+	}
+
+	/*
+	 * marks the request executed by the calling thread as completed, no further requests will be
+	 * attached to it. Returns the pending requests to be completed or null if the calling thread
+	 * doesn't execute a request of the given requestType.
+	 */
+	private List<PendingRequest> completeCurrentRequest(final RequestType requestType) {
+		Request<HashMap<String, Object>> request = mCurrentRequest.get();
+		if (request == null || request.f != requestType) {
+			return null;
+		}
+
+		synchronized (mRequestLock) {
+			if (request.mDeduplicationKey != null) {
+				mUncompletedRequests.remove(request.mDeduplicationKey);
+				request.mDeduplicationKey = null;
+			}
+			return request.mPendingRequests;
+		}
+	}
+
+	/* returns the request with the highest priority which doesn't exceed any concurrency limit, or null */
+	private Request<HashMap<String, Object>> getRequest() {
+		synchronized (mRequestLock) {
+			long earliestDeadline = 0;
+			Iterator<Request<HashMap<String, Object>>> iterator = mRequests.iterator();
+			while (iterator.hasNext()) {
+				Request<HashMap<String, Object>> request = iterator.next();
+				if (request.isCancelled()) {
+					/* nobody waits for the result anymore */
+					iterator.remove();
+					releaseRequest(request, false);
+				} else if (isExecutable(request)) {
+					Batching batching = mBatching.get(request.f);
+					if (batching != null) {
+						List<Request<HashMap<String, Object>>> batch = getBatch(request, batching.mMaxSize);
+						if (batch.size() < batching.mMaxSize && request.mBatchDeadline != 0 && !mShutdown && System.nanoTime() - request.mBatchDeadline < 0) {
+							/* the batch isn't full yet, wait for further requests unless it's drained for shutdown */
+							if (earliestDeadline == 0 || request.mBatchDeadline - earliestDeadline < 0) {
+								earliestDeadline = request.mBatchDeadline;
+							}
+							continue;
+						}
+						mRequests.removeAll(batch);
+						for (Request<HashMap<String, Object>> batched : batch) {
+							setExecuting(batched, true);
+						}
+						batch.remove(0);
+						request.mBatch = batch.isEmpty() ? null : batch;
+					} else {
+						iterator.remove();
+						setExecuting(request, true);
+					}
+					increment(mRequestsInFlightPerType, request.f);
+					if (request.mHost != null) {
+						increment(mRequestsInFlightPerHost, request.mHost);
+					}
+					return request;
+				}
+			}
+			if (earliestDeadline != 0) {
+				scheduleBatchWakeup(earliestDeadline);
+			}
+			return null;
+		}
+	}
+
+	/* the queued requests which can be batched with the given one, starting with it */
+	private List<Request<HashMap<String, Object>>> getBatch(final Request<HashMap<String, Object>> first, final int maxBatchSize) {
+		List<Request<HashMap<String, Object>>> batch = new ArrayList<Request<HashMap<String, Object>>>(maxBatchSize);
+		batch.add(first);
+		for (Request<HashMap<String, Object>> request : mRequests.tailSet(first, false)) {
+			if (batch.size() >= maxBatchSize) {
+				break;
+			}
+			if (request.f == first.f && (request.mHost == null ? first.mHost == null : request.mHost.equals(first.mHost)) && !request.isCancelled()) {
+				batch.add(request);
+			}
+		}
+		return batch;
+	}
+
+	/* resumes the threads once the earliest batching window is closed, only called while holding mRequestLock */
+	private void scheduleBatchWakeup(final long deadline) {
+		if (mBatchWakeup != 0 && mBatchWakeup - deadline <= 0) {
+			return;
+		}
+		mBatchWakeup = deadline;
+		Core.getWorkerExecutor().schedule(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (mRequestLock) {
+					if (mBatchWakeup == deadline) {
+						mBatchWakeup = 0;
+					}
+				}
+				resumeThreads();
+			}
+		}, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+	}
+
+	private void requestFinished(final Request<HashMap<String, Object>> request, final boolean retrying) {
+		synchronized (mRequestLock) {
+			decrement(mRequestsInFlightPerType, request.f);
+			if (request.mHost != null) {
+				decrement(mRequestsInFlightPerHost, request.mHost);
+			}
+		}
+		releaseRequest(request, retrying);
+	}
+
+	private void releaseRequest(final Request<HashMap<String, Object>> request, final boolean retrying) {
+		List<PendingRequest> pendingRequests;
+		synchronized (mRequestLock) {
+			setExecuting(request, false);
+			if (retrying) {
+				return;
+			}
+			pendingRequests = new ArrayList<PendingRequest>(request.mPendingRequests);
+			/* the request didn't send any result, equal requests have to be executed again */
+			if (request.mDeduplicationKey != null) {
+				mUncompletedRequests.remove(request.mDeduplicationKey);
+				request.mDeduplicationKey = null;
+			}
+			if (request.mOutboxId != 0) {
+				if (request.mRetryLater) {
+					mOutbox.defer(request.mOutboxId);
+				} else {
+					mOutbox.acknowledge(request.mOutboxId);
+				}
+			}
+		}
+		/* requests which haven't been completed by executing the request are dropped */
+		for (PendingRequest pendingRequest : pendingRequests) {
+			pendingRequest.abandon();
+		}
+	}
+
+	/* the fallback of Core leaves executed requests to their thread, only called while holding mRequestLock */
+	private static void setExecuting(final Request<HashMap<String, Object>> request, final boolean executing) {
+		request.mExecuting = executing;
+		for (PendingRequest pendingRequest : request.mPendingRequests) {
+			pendingRequest.mExecuting = executing;
+		}
+	}
+
+	/* only called while holding mRequestLock */
+	private boolean isExecutable(final Request<HashMap<String, Object>> request) {
+		Integer maxPerType = mMaxRequestsInFlightPerType.get(request.f);
+		if (maxPerType != null && count(mRequestsInFlightPerType, request.f) >= maxPerType) {
+			return false;
+		}
+		return request.mHost == null || count(mRequestsInFlightPerHost, request.mHost) < mMaxRequestsInFlightPerHost;
+	}
+
+	private static <K> int count(final HashMap<K, Integer> counts, final K key) {
+		Integer count = counts.get(key);
+		return count == null ? 0 : count;
+	}
+
+	private static <K> void increment(final HashMap<K, Integer> counts, final K key) {
+		counts.put(key, count(counts, key) + 1);
+	}
+
+	private static <K> void decrement(final HashMap<K, Integer> counts, final K key) {
+		int count = count(counts, key) - 1;
+		if (count > 0) {
+			counts.put(key, count);
+		} else {
+			counts.remove(key);
+		}
+	}
+
+	/**
+	 * can be called while executing a request to stop early if its result isn't needed anymore
+	 * 
+	 * @return true if the request executed by the calling thread has been cancelled or has expired
+	 */
+	protected boolean isCancelled() {
+		Request<HashMap<String, Object>> request = mCurrentRequest.get();
+		if (request == null) {
+			return false;
+		}
+		synchronized (mRequestLock) {
+			return request.isCancelled();
 		}
 	}
 
@@ -118,7 +1098,14 @@ abstract public class Networker {
 	 *            the requestType of the operation performed
 	 */
 	protected void sendMessage(final RequestType requestType) {
-		mCore.sendMessage(requestType);
+		List<PendingRequest> pendingRequests = completeCurrentRequest(requestType);
+		if (pendingRequests == null) {
+			mCore.sendMessage(requestType);
+		} else {
+			for (PendingRequest pendingRequest : pendingRequests) {
+				mCore.sendMessage(pendingRequest);
+			}
+		}
 	}
 
 	/**
@@ -131,7 +1118,7 @@ abstract public class Networker {
 	 */
 	protected void sendMessage(final RequestType requestType, final Object requestValue) {
 		storeRequestValue(requestType, requestValue);
-		mCore.sendMessage(requestType);
+		sendMessage(requestType);
 	}
 
 	/**
@@ -141,8 +1128,72 @@ abstract public class Networker {
 	 *            the achieved value
 	 */
 	protected <T> void storeRequestValue(final RequestType requestType, final T requestValue) {
-		mCore.storeRequestValue(requestType, requestValue);
+		List<PendingRequest> pendingRequests = completeCurrentRequest(requestType);
+		if (pendingRequests == null) {
+			mCore.storeRequestValue(requestType, requestValue);
+		} else {
+			for (PendingRequest pendingRequest : pendingRequests) {
+				mCore.storeRequestValue(pendingRequest, requestValue);
+			}
+		}
+	}
+
+	/**
+	 * performs the networking operation on a networking thread
+	 * 
+	 * @param requestType
+	 *            defines what the Networker should do
+	 * @param parameters
+	 *            the parameters for the given operation
+	 * @throws NetworkingException
+	 *             if the operation failed, see {@link #setRetry(RequestType, int, long, long)} and
+	 *             {@link #setCircuitBreaker(int, long)}
+	 */
+	abstract protected void executeRequest(final RequestType requestType, final HashMap<String, Object> parameters) throws NetworkingException;
+
+	/**
+	 * performs a batch of networking operations collected as configured by
+	 * {@link #setBatching(RequestType, int, long)}, e.g. as one multi-get or bulk call. By default
+	 * every operation is performed on its own by {@link #executeRequest(RequestType, HashMap)
+	 * executeRequest}. A RuntimeException or a wrong amount of results fails every request of the
+	 * batch without executing it again.
+	 * 
+	 * @param requestType
+	 *            defines what the Networker should do
+	 * @param parameters
+	 *            the parameters of every operation of the batch
+	 * @return the result of every operation in the order of the parameters, each one is sent to the
+	 *         listeners of its request, a {@link NetworkingException} fails its request only. Null if
+	 *         the results have already been sent.
+	 * @throws NetworkingException
+	 *             if the whole batch failed
+	 */
+	protected List<?> executeBatch(final RequestType requestType, final List<HashMap<String, Object>> parameters) throws NetworkingException {
+		List<Request<HashMap<String, Object>>> batch = mCurrentBatch.get();
+		List<Object> results = null;
+		for (int i = 0; i < batch.size(); i++) {
+			Request<HashMap<String, Object>> request = batch.get(i);
+			mCurrentRequest.set(request);
+			try {
+				executeRequest(request.f, request.s);
+			} catch (NetworkingException e) {
+				/* only the failed request is retried */
+				if (results == null) {
+					results = new ArrayList<Object>(Collections.nCopies(batch.size(), SENT));
+				}
+				results.set(i, e);
+			}
+		}
+		return results;
 	}
 
-	abstract protected void executeRequest(final RequestType requestType, final HashMap<String, Object> parameters);
+	private static final class Batching {
+		private final int mMaxSize;
+		private final long mWindow;
+
+		private Batching(final int maxSize, final long window) {
+			mMaxSize = maxSize;
+			mWindow = window;
+		}
+	}
 }
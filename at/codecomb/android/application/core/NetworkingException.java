@@ -0,0 +1,65 @@
+package at.codecomb.android.application.core;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = NetworkingException.java
+ * 
+ * This source is subject to Code Comb. 
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software 
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * thrown by {@link Networker#executeRequest(RequestType, java.util.HashMap) executeRequest} if a
+ * networking operation failed. Retryable failures are executed again as configured by
+ * {@link Networker#setRetry(RequestType, int, long, long)} and count for the circuit breaker
+ * configured by {@link Networker#setCircuitBreaker(int, long)}, non-retryable failures like client
+ * errors do neither.
+ * 
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+public class NetworkingException extends Exception {
+	private static final long serialVersionUID = 1L;
+
+	private final boolean mRetryable;
+
+	public NetworkingException(final String message) {
+		this(message, null, true);
+	}
+
+	public NetworkingException(final String message, final Throwable cause) {
+		this(message, cause, true);
+	}
+
+	/**
+	 * @param message
+	 *            the detail message
+	 * @param cause
+	 *            the cause, e.g. an IOException
+	 * @param retryable
+	 *            false if executing the request again won't help, e.g. a client error
+	 */
+	public NetworkingException(final String message, final Throwable cause, final boolean retryable) {
+		super(message, cause);
+		mRetryable = retryable;
+	}
+
+	public boolean isRetryable() {
+		return mRetryable;
+	}
+}
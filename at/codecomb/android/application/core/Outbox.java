@@ -0,0 +1,576 @@
+package at.codecomb.android.application.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import android.util.Log;
+
+import at.codecomb.util.concurrent.MpscQueue;
+import at.codecomb.util.thread.Lane;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = Outbox.java
+ * 
+ * This source is subject to Code Comb. 
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software 
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * durable log of the networking requests {@link Networker} hasn't completed yet. Every request is
+ * appended as an ADD record and marked as done by an ACK record, on startup the records are
+ * replayed and only the requests without ACK are executed again. Once more requests have been
+ * acknowledged than are pending the log is rewritten with the pending requests only.
+ * <p>
+ * Only the position of each pending request is kept in memory, its parameters are read back from
+ * the log when {@link Networker} has room for it. {@link #add(byte[])} writes the ADD record before
+ * it returns, so an accepted request survives the process dying; the log is only synced to the
+ * disk while it is compacted, so a crash of the whole device may still lose it. Deferring and
+ * acknowledging a request only update the state in memory and queue its ACK record, ACK records
+ * are appended and the log is compacted by a lane on the networking threads. A request
+ * acknowledged right before the process died may therefore be replayed once more. A torn record
+ * at the end of the log is dropped on replay. Once the log can't be written anymore
+ * {@link #add(byte[])} refuses new requests, so they are held in memory only.
+ * <p>
+ * The state in memory is guarded by the outbox, the file and the location of the records by
+ * mLogLock, which is always taken after the outbox's lock.
+ * 
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+final class Outbox {
+	private static final String LOG_TAG = "Outbox";
+	/* only in the log, in memory, only in the log until the outbox is resumed, done, just added */
+	private static final int STORED = 0;
+	private static final int LOADED = 1;
+	private static final int DEFERRED = 2;
+	private static final int ACKNOWLEDGED = 3;
+	private static final int ADDED = 4;
+
+	private static final byte ADD = 1;
+	private static final byte ACK = 2;
+	/* length and checksum in front of every record */
+	private static final int HEADER_LENGTH = 8;
+	/* type and id at the beginning of every payload */
+	private static final int ID_OFFSET = 1;
+	private static final int ACK_LENGTH = 9;
+	/* acknowledged records tolerated before the log is compacted */
+	private static final int COMPACTION_THRESHOLD = 256;
+
+	private final File mFile;
+	private final int mMaxLoaded;
+	/* pending requests in the order they have been added */
+	private final LinkedHashMap<Long, Position> mPending;
+	private long mNextId = 1;
+	private int mLoaded;
+	private int mStored;
+	private int mAcknowledged;
+
+	/* guards mLog and the offsets and payloads of the positions */
+	private final Object mLogLock = new Object();
+	private RandomAccessFile mLog;
+	/* ACK records to be appended in this order, only consumed by mWriter */
+	private final MpscQueue<byte[]> mRecords;
+	private final Lane mWriter;
+	/* the reason the log can't be written anymore */
+	private volatile IOException mFailure;
+
+	/**
+	 * opens the log and replays its records
+	 * 
+	 * @param file
+	 *            the log file, created if it doesn't exist
+	 * @param maxLoaded
+	 *            how many requests are held in memory at most
+	 * @param executor
+	 *            executor the ACK records are written and the log is compacted on
+	 * @throws IOException
+	 *             if the log can't be opened
+	 */
+	Outbox(final File file, final int maxLoaded, final Executor executor) throws IOException {
+		if (maxLoaded < 1) {
+			throw new IllegalArgumentException("invalid amount of requests in memory " + maxLoaded);
+		}
+		mFile = file;
+		mMaxLoaded = maxLoaded;
+		mPending = new LinkedHashMap<Long, Position>();
+		mRecords = new MpscQueue<byte[]>();
+		mLog = new RandomAccessFile(file, "rw");
+		replay();
+		mWriter = new Lane("net-outbox", executor) {
+			@Override
+			public void work() {
+				write();
+			}
+		};
+	}
+
+	/**
+	 * encodes a request for {@link #add(byte[])}, can be called without holding any lock
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the parameters aren't serializable
+	 */
+	static byte[] encode(final RequestType requestType, final HashMap<String, Object> parameters, final int priority) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream output = new DataOutputStream(bytes);
+			output.writeByte(ADD);
+			/* the id is filled in by add */
+			output.writeLong(0);
+			output.writeInt(priority);
+			output.writeUTF(requestType.name());
+			ObjectOutputStream objects = new ObjectOutputStream(output);
+			objects.writeObject(parameters);
+			objects.close();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new IllegalArgumentException("the parameters of a durable request have to be serializable", e);
+		}
+	}
+
+	/**
+	 * appends an encoded request to the log on the calling thread, it isn't read back by
+	 * {@link #loadAll(boolean)} until {@link #load(long)} has been called for it
+	 * 
+	 * @param payload
+	 *            the request encoded by {@link #encode(RequestType, HashMap, int)}
+	 * @return the id of the request, or 0 if the log can't be written
+	 */
+	long add(final byte[] payload) {
+		Position position;
+		synchronized (this) {
+			if (mFailure != null) {
+				return 0;
+			}
+			long id = mNextId++;
+			writeLong(payload, ID_OFFSET, id);
+			position = new Position(id, payload);
+			position.mState = ADDED;
+			/* known before it is written, so a compaction running meanwhile keeps it */
+			mPending.put(id, position);
+		}
+
+		synchronized (mLogLock) {
+			try {
+				position.mOffset = append(payload);
+				position.mPayload = null;
+				return position.mId;
+			} catch (IOException e) {
+				fail(e);
+			}
+		}
+		synchronized (this) {
+			mPending.remove(position.mId);
+		}
+		return 0;
+	}
+
+	/**
+	 * hands a request just added over to the pending ones and reserves room in memory for it
+	 * 
+	 * @return true if the request may be held in memory, false if it stays in the log only
+	 */
+	synchronized boolean load(final long id) {
+		Position position = mPending.get(id);
+		if (position == null || position.mState != ADDED) {
+			return false;
+		}
+		setState(position, mLoaded < mMaxLoaded ? LOADED : STORED);
+		return position.mState == LOADED;
+	}
+
+	/**
+	 * reads requests which are only in the log back into memory, oldest first
+	 * 
+	 * @param resume
+	 *            true = deferred requests are read as well
+	 * @return the requests read, at most as many as there is room for
+	 */
+	List<Entry> loadAll(final boolean resume) {
+		/* reserve the room first, the records are read without holding the outbox's lock */
+		List<Position> positions = new ArrayList<Position>();
+		synchronized (this) {
+			if (resume) {
+				for (Position position : mPending.values()) {
+					if (position.mState == DEFERRED) {
+						setState(position, STORED);
+					}
+				}
+			}
+
+			Iterator<Position> iterator = mPending.values().iterator();
+			while (mStored > 0 && mLoaded < mMaxLoaded && iterator.hasNext()) {
+				Position position = iterator.next();
+				if (position.mState == STORED) {
+					setState(position, LOADED);
+					positions.add(position);
+				}
+			}
+		}
+
+		List<Entry> entries = new ArrayList<Entry>(positions.size());
+		for (Position position : positions) {
+			Entry entry = read(position);
+			if (entry != null) {
+				entries.add(entry);
+			} else {
+				/* unreadable, e.g. its requestType doesn't exist anymore, acknowledge it so compaction drops it */
+				acknowledge(position.mId);
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * keeps a request which failed in the log but releases its room in memory, it is read again
+	 * once the outbox is resumed
+	 */
+	synchronized void defer(final long id) {
+		Position position = mPending.get(id);
+		if (position != null && position.mState == LOADED) {
+			setState(position, DEFERRED);
+		}
+	}
+
+	/**
+	 * marks a request as done, it won't be replayed anymore
+	 */
+	synchronized void acknowledge(final long id) {
+		Position position = mPending.remove(id);
+		if (position == null) {
+			return;
+		}
+		setState(position, ACKNOWLEDGED);
+		mAcknowledged++;
+		byte[] payload = new byte[ACK_LENGTH];
+		payload[0] = ACK;
+		writeLong(payload, ID_OFFSET, id);
+		mRecords.offer(payload);
+		mWriter.signal();
+	}
+
+	/**
+	 * writes the queued ACK records and closes the log, requests added afterwards are held in
+	 * memory only
+	 * 
+	 * @param deadline
+	 *            the System.nanoTime() to wait for the ACK records until
+	 * @return false if the ACK records haven't been written until the deadline, their requests are
+	 *         replayed after the next start
+	 * @throws InterruptedException
+	 *             if the calling thread has been interrupted while waiting
+	 */
+	boolean close(final long deadline) throws InterruptedException {
+		mWriter.shutdown();
+		boolean terminated = mWriter.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+		synchronized (this) {
+			if (mFailure == null) {
+				mFailure = new IOException(mFile + " has been closed");
+			}
+		}
+		synchronized (mLogLock) {
+			try {
+				mLog.close();
+			} catch (IOException e) {
+				Log.w(LOG_TAG, "couldn't close " + mFile, e);
+			}
+		}
+		return terminated;
+	}
+
+	/* ------------------------------------- private methods ------------------------------------- */
+
+	private void setState(final Position position, final int state) {
+		if (position.mState == LOADED) {
+			mLoaded--;
+		} else if (position.mState == STORED) {
+			mStored--;
+		}
+		if (state == LOADED) {
+			mLoaded++;
+		} else if (state == STORED) {
+			mStored++;
+		}
+		position.mState = state;
+	}
+
+	/* appends the queued ACK records and compacts the log if it's due, only called by mWriter */
+	private void write() {
+		byte[] record;
+		while ((record = mRecords.poll()) != null) {
+			synchronized (mLogLock) {
+				try {
+					append(record);
+				} catch (IOException e) {
+					/* the request is replayed once more, further requests are held in memory only */
+					fail(e);
+				}
+			}
+		}
+
+		List<Position> positions;
+		int acknowledged;
+		synchronized (this) {
+			acknowledged = mAcknowledged;
+			if (acknowledged < COMPACTION_THRESHOLD || acknowledged <= mPending.size()) {
+				return;
+			}
+			positions = new ArrayList<Position>(mPending.values());
+		}
+		try {
+			synchronized (mLogLock) {
+				compact(positions);
+			}
+		} catch (IOException e) {
+			Log.w(LOG_TAG, "couldn't compact " + mFile, e);
+		} finally {
+			/* acknowledgements since the snapshot are in the queue and still count, failures try again later */
+			synchronized (this) {
+				mAcknowledged -= acknowledged;
+			}
+		}
+	}
+
+	private void fail(final IOException exception) {
+		Log.e(LOG_TAG, "couldn't write " + mFile + ", durable requests are held in memory only", exception);
+		if (mFailure == null) {
+			mFailure = exception;
+		}
+	}
+
+	/* only called while holding mLogLock */
+	private long append(final byte[] payload) throws IOException {
+		long offset = mLog.length();
+		mLog.seek(offset);
+		mLog.write(frame(payload));
+		return offset;
+	}
+
+	private static byte[] frame(final byte[] payload) {
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		int checksum = (int) crc.getValue();
+		byte[] record = new byte[HEADER_LENGTH + payload.length];
+		writeInt(record, 0, payload.length);
+		writeInt(record, 4, checksum);
+		System.arraycopy(payload, 0, record, HEADER_LENGTH, payload.length);
+		return record;
+	}
+
+	private static void writeInt(final byte[] buffer, final int offset, final int value) {
+		buffer[offset] = (byte) (value >>> 24);
+		buffer[offset + 1] = (byte) (value >>> 16);
+		buffer[offset + 2] = (byte) (value >>> 8);
+		buffer[offset + 3] = (byte) value;
+	}
+
+	private static void writeLong(final byte[] buffer, final int offset, final long value) {
+		writeInt(buffer, offset, (int) (value >>> 32));
+		writeInt(buffer, offset + 4, (int) value);
+	}
+
+	/* reads the record at the current position of the log, null at the end or at a torn record */
+	private byte[] readRecord() throws IOException {
+		try {
+			int length = mLog.readInt();
+			int checksum = mLog.readInt();
+			if (length < 0 || length > mLog.length() - mLog.getFilePointer()) {
+				return null;
+			}
+			byte[] payload = new byte[length];
+			mLog.readFully(payload);
+			CRC32 crc = new CRC32();
+			crc.update(payload);
+			return (int) crc.getValue() == checksum ? payload : null;
+		} catch (EOFException e) {
+			return null;
+		}
+	}
+
+	/* only called by the constructor */
+	private void replay() throws IOException {
+		long offset = 0;
+		mLog.seek(0);
+		byte[] payload;
+		while ((payload = readRecord()) != null) {
+			DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+			byte type = input.readByte();
+			long id = input.readLong();
+			if (type == ADD) {
+				Position position = new Position(id, null);
+				position.mOffset = offset;
+				position.mLength = payload.length;
+				mPending.put(id, position);
+				mStored++;
+			} else if (mPending.remove(id) != null) {
+				mStored--;
+				mAcknowledged++;
+			}
+			mNextId = Math.max(mNextId, id + 1);
+			offset = mLog.getFilePointer();
+		}
+		/* drop what has been written partially when the process died */
+		mLog.setLength(offset);
+		if (mAcknowledged > 0) {
+			compact(new ArrayList<Position>(mPending.values()));
+			mAcknowledged = 0;
+		}
+	}
+
+	/*
+	 * rewrites the log with the given positions only, records which haven't been written yet are
+	 * appended by add afterwards. Only called while holding mLogLock.
+	 */
+	private void compact(final List<Position> positions) throws IOException {
+		File compacted = new File(mFile.getPath() + ".tmp");
+		/* the positions are only moved once the compacted log has replaced the original one */
+		long[] offsets = new long[positions.size()];
+		RandomAccessFile log = new RandomAccessFile(compacted, "rw");
+		try {
+			log.setLength(0);
+			for (int i = 0; i < positions.size(); i++) {
+				Position position = positions.get(i);
+				if (position.mPayload != null) {
+					offsets[i] = -1;
+					continue;
+				}
+				byte[] record = new byte[HEADER_LENGTH + position.mLength];
+				mLog.seek(position.mOffset);
+				mLog.readFully(record);
+				offsets[i] = log.getFilePointer();
+				log.write(record);
+			}
+			log.getFD().sync();
+		} finally {
+			log.close();
+		}
+
+		mLog.close();
+		boolean replaced = compacted.renameTo(mFile);
+		try {
+			/* reopen the log either way, the original one is still complete if it couldn't be replaced */
+			mLog = new RandomAccessFile(mFile, "rw");
+		} catch (IOException e) {
+			fail(e);
+			throw e;
+		}
+		if (!replaced) {
+			compacted.delete();
+			throw new IOException("couldn't replace " + mFile);
+		}
+		for (int i = 0; i < positions.size(); i++) {
+			if (offsets[i] >= 0) {
+				positions.get(i).mOffset = offsets[i];
+			}
+		}
+	}
+
+	/* reads the request back from memory or the log */
+	private Entry read(final Position position) {
+		byte[] payload;
+		synchronized (mLogLock) {
+			try {
+				if (position.mPayload != null) {
+					payload = position.mPayload;
+				} else {
+					mLog.seek(position.mOffset);
+					payload = readRecord();
+				}
+			} catch (IOException e) {
+				Log.w(LOG_TAG, "couldn't read request " + position.mId + " from " + mFile, e);
+				return null;
+			}
+		}
+		return payload != null ? decode(payload) : null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Entry decode(final byte[] payload) {
+		try {
+			DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+			input.readByte();
+			long id = input.readLong();
+			int priority = input.readInt();
+			RequestType requestType = RequestType.valueOf(input.readUTF());
+			ObjectInputStream objects = new ObjectInputStream(input);
+			HashMap<String, Object> parameters = (HashMap<String, Object>) objects.readObject();
+			return new Entry(id, requestType, parameters, priority);
+		} catch (IllegalArgumentException e) {
+			return null;
+		} catch (ClassNotFoundException e) {
+			return null;
+		} catch (IOException e) {
+			Log.w(LOG_TAG, "couldn't decode a request", e);
+			return null;
+		}
+	}
+
+	/* where an ADD record is located in the log */
+	private static final class Position {
+		private final long mId;
+		/* offset and length are valid once the record has been written, guarded by mLogLock */
+		private long mOffset;
+		private int mLength;
+		/* the record until add has written it, guarded by mLogLock */
+		private byte[] mPayload;
+		/* guarded by the outbox */
+		private int mState = STORED;
+
+		private Position(final long id, final byte[] payload) {
+			mId = id;
+			mPayload = payload;
+			if (payload != null) {
+				mLength = payload.length;
+			}
+		}
+	}
+
+	/**
+	 * a request read back from the log
+	 */
+	static final class Entry {
+		final long mId;
+		final RequestType mRequestType;
+		final HashMap<String, Object> mParameters;
+		final int mPriority;
+
+		private Entry(final long id, final RequestType requestType, final HashMap<String, Object> parameters, final int priority) {
+			mId = id;
+			mRequestType = requestType;
+			mParameters = parameters;
+			mPriority = priority;
+		}
+	}
+}
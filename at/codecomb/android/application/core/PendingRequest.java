@@ -0,0 +1,130 @@
+package at.codecomb.android.application.core;
+
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import at.codecomb.android.application.listener.ApplicationListener;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = PendingRequest.java
+ * 
+ * This source is subject to Code Comb. 
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software 
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * a request passed to {@link Core} which hasn't been completed yet. The id correlates the
+ * completion message with the listener, so any amount of requests of the same {@link RequestType}
+ * can be outstanding at the same time.
+ * 
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+final class PendingRequest extends RequestHandle {
+	final long mId;
+	final RequestType mRequestType;
+	/* either the listener or the future is set, or none if nobody waits for the result */
+	final ApplicationListener mListener;
+	final RequestFuture<?> mFuture;
+	/* the outstanding requests of Core with the same RequestType, ordered by their age */
+	private final ConcurrentSkipListMap<Long, PendingRequest> mPendingRequests;
+	/* true --> the request is executed by a thread of Database or Networker */
+	volatile boolean mExecuting;
+	/* set once a completion message has been sent or the request has been abandoned */
+	private final AtomicBoolean mAnswered = new AtomicBoolean();
+
+	/* the achieved value, handed over to the listener along with the completion message */
+	private volatile Object mValue;
+	private volatile boolean mHasValue;
+
+	PendingRequest(final long id, final RequestType requestType, final ApplicationListener listener, final RequestFuture<?> future,
+			final ConcurrentSkipListMap<Long, PendingRequest> pendingRequests) {
+		super(requestType);
+		mId = id;
+		mRequestType = requestType;
+		mListener = listener;
+		mFuture = future;
+		mPendingRequests = pendingRequests;
+		if (future != null) {
+			future.setHandle(this);
+		}
+	}
+
+	/**
+	 * removes the request from the outstanding ones
+	 * 
+	 * @return true if the request was still outstanding
+	 */
+	boolean finish() {
+		return mPendingRequests.remove(mId) != null;
+	}
+
+	/**
+	 * marks the request as answered by a completion message
+	 * 
+	 * @return true if this call answered the request, false if it has already been answered
+	 */
+	boolean answer() {
+		return mAnswered.compareAndSet(false, true);
+	}
+
+	/* removes a request whose execution ended without a completion message, a future fails */
+	void abandon() {
+		if (answer() && finish() && mFuture != null) {
+			mFuture.fail(new IllegalStateException("request " + mRequestType + " finished without a result"));
+		}
+	}
+
+	@Override
+	void onCancelled() {
+		finish();
+		if (mFuture != null) {
+			mFuture.cancel(false);
+		}
+	}
+
+	/* removes a request which isn't active anymore, returns false if it is still active */
+	boolean discardIfInactive() {
+		if (isCancelled()) {
+			finish();
+			return true;
+		}
+		if (isExpired()) {
+			if (finish() && mFuture != null) {
+				mFuture.fail(new TimeoutException("request " + mRequestType + " expired"));
+			}
+			return true;
+		}
+		return false;
+	}
+
+	void setValue(final Object value) {
+		mValue = value;
+		mHasValue = true;
+	}
+
+	boolean hasValue() {
+		return mHasValue;
+	}
+
+	Object getValue() {
+		return mValue;
+	}
+}
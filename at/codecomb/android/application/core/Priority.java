@@ -0,0 +1,46 @@
+package at.codecomb.android.application.core;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = Priority.java
+ * 
+ * This source is subject to Code Comb. 
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software 
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Priorities of requests queued in {@link Database} and {@link Networker}. Requests with a higher
+ * priority are always executed first, but every request gains one priority level each aging
+ * interval it waits, so requests with a low priority can't starve.
+ * 
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+public final class Priority {
+	/* uses the default priority set for the RequestType, NORMAL if none has been set */
+	public static final int DEFAULT = Integer.MIN_VALUE;
+
+	/* prefetching, synchronisation and other work the user isn't waiting for */
+	public static final int BACKGROUND = 0;
+	public static final int NORMAL = 1;
+	/* requests the user is actually waiting for */
+	public static final int FOREGROUND = 2;
+
+	private Priority() {
+	}
+}
@@ -0,0 +1,84 @@
+package at.codecomb.android.application.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = PriorityScheduler.java
+ * 
+ * This source is subject to Code Comb. 
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software 
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * assigns the priority to queued requests, using a default priority per {@link RequestType} and an
+ * aging interval shared by {@link Database} and {@link Networker}
+ * 
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+class PriorityScheduler {
+	private static final long DEFAULT_AGING_INTERVAL = 500;
+
+	private final ConcurrentHashMap<RequestType, Integer> mDefaultPriorities;
+	private final AtomicLong mSequence;
+	private volatile long mAgingInterval;
+
+	PriorityScheduler() {
+		mDefaultPriorities = new ConcurrentHashMap<RequestType, Integer>();
+		mSequence = new AtomicLong();
+		mAgingInterval = TimeUnit.MILLISECONDS.toNanos(DEFAULT_AGING_INTERVAL);
+	}
+
+	void setDefaultPriority(final RequestType requestType, final int priority) {
+		if (priority == Priority.DEFAULT) {
+			mDefaultPriorities.remove(requestType);
+		} else {
+			mDefaultPriorities.put(requestType, priority);
+		}
+	}
+
+	void setAgingInterval(final long agingInterval) {
+		if (agingInterval <= 0) {
+			throw new IllegalArgumentException("invalid aging interval " + agingInterval);
+		}
+		mAgingInterval = TimeUnit.MILLISECONDS.toNanos(agingInterval);
+	}
+
+	/**
+	 * sets the priority of a request right before it is queued
+	 * 
+	 * @param request
+	 *            the request to be queued
+	 * @param priority
+	 *            the priority or {@link Priority#DEFAULT}
+	 */
+	void schedule(final Request<?> request, final int priority) {
+		int actualPriority = priority;
+		if (actualPriority == Priority.DEFAULT) {
+			Integer defaultPriority = mDefaultPriorities.get(request.f);
+			actualPriority = defaultPriority == null ? Priority.NORMAL : defaultPriority;
+		}
+		/* each priority level is worth one aging interval of waiting */
+		request.mSchedulingTime = System.nanoTime() - actualPriority * mAgingInterval;
+		request.mSequence = mSequence.incrementAndGet();
+	}
+}
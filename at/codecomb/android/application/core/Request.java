@@ -0,0 +1,134 @@
+package at.codecomb.android.application.core;
+
+import java.util.List;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = Request.java
+ * 
+ * This source is subject to Code Comb. 
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software 
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * a queued request of {@link Database} and {@link Networker}, carrying the information the working
+ * threads need besides the {@link RequestType} and its content
+ * 
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+class Request<U> extends Tupling<RequestType, U> implements Comparable<Request<?>> {
+	/* identifies the record a storing request writes to, null if it can't be coalesced */
+	final Key mCoalescingKey;
+	/* state of the loading cache when a loading request was queued */
+	long mCacheGeneration;
+	/* host a networking request connects to, null if it isn't limited per host */
+	String mHost;
+	/* requests of Core completed by this one, in Networker guarded by its request lock */
+	List<PendingRequest> mPendingRequests;
+	/* true --> a networking request is executed by a thread, guarded by the request lock */
+	boolean mExecuting;
+	/* set while equal requests are attached to this one instead of being executed */
+	Request.Key mDeduplicationKey;
+	/* true --> executed in the order it was added among the ordered requests of its RequestType */
+	boolean mOrdered;
+	/* set for streaming loading requests */
+	LoadStream<Object> mStream;
+	/* true --> a newer request for the same record has been queued */
+	volatile boolean mSuperseded;
+	/* futures of a storing request completed once it has been written, including the ones of requests it superseded */
+	List<RequestFuture<Void>> mStoredFutures;
+	/* failed attempts of a networking request executed again so far */
+	int mRetries;
+	/* id of a durable networking request in the outbox, 0 if it isn't durable */
+	long mOutboxId;
+	/* true --> a durable networking request failed but stays in the outbox */
+	boolean mRetryLater;
+	/* further networking requests executed in one batch with this one */
+	List<Request<U>> mBatch;
+	/* System.nanoTime() until a batched networking request waits for further requests */
+	long mBatchDeadline;
+	/* queuing time shifted by the priority, set by the PriorityScheduler */
+	long mSchedulingTime;
+	/* keeps the order of requests with the same scheduling time */
+	long mSequence;
+
+	Request(final RequestType requestType, final U content) {
+		this(requestType, content, null);
+	}
+
+	Request(final RequestType requestType, final U content, final Key coalescingKey) {
+		super(requestType, content);
+		mCoalescingKey = coalescingKey;
+	}
+
+	/* true --> every request of Core waiting for this one has been cancelled or has expired */
+	boolean isCancelled() {
+		if (mStream != null) {
+			return mStream.isCancelled();
+		}
+		if (mPendingRequests == null || mPendingRequests.isEmpty()) {
+			return false;
+		}
+		boolean cancelled = true;
+		for (PendingRequest request : mPendingRequests) {
+			if (!request.discardIfInactive()) {
+				cancelled = false;
+			}
+		}
+		return cancelled;
+	}
+
+	/* earlier scheduling time first, which is the higher aged priority */
+	@Override
+	public int compareTo(final Request<?> other) {
+		long difference = mSchedulingTime - other.mSchedulingTime;
+		if (difference == 0) {
+			difference = mSequence - other.mSequence;
+		}
+		return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+	}
+
+	/**
+	 * a {@link RequestType} combined with a key, e.g. the key extracted by a
+	 * {@link CoalescingPolicy} or the reference of a loading request
+	 */
+	static final class Key {
+		private final RequestType mRequestType;
+		private final Object mKey;
+
+		Key(final RequestType requestType, final Object key) {
+			mRequestType = requestType;
+			mKey = key;
+		}
+
+		@Override
+		public boolean equals(final Object object) {
+			if (!(object instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) object;
+			return mRequestType == other.mRequestType && (mKey == null ? other.mKey == null : mKey.equals(other.mKey));
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * mRequestType.hashCode() + (mKey == null ? 0 : mKey.hashCode());
+		}
+	}
+}
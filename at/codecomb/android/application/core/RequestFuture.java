@@ -0,0 +1,351 @@
+package at.codecomb.android.application.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = RequestFuture.java
+ * 
+ * This source is subject to Code Comb. 
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software 
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * The result of a request performed by {@link Database} or {@link Networker}, returned by the
+ * asynchronous methods of {@link Core}. Instead of waiting for
+ * {@link at.codecomb.android.application.listener.ApplicationListener#requestCompleted(RequestType)
+ * requestCompleted} on the main-thread, continuations can be chained which receive the typed value
+ * directly on an executor of choice.
+ * 
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+public class RequestFuture<T> implements Future<T> {
+	/* runs continuations on the thread completing the future */
+	public static final Executor DIRECT = new Executor() {
+		@Override
+		public void execute(final Runnable command) {
+			command.run();
+		}
+	};
+
+	private static final int PENDING = 0;
+	private static final int SUCCEEDED = 1;
+	private static final int FAILED = 2;
+	private static final int CANCELLED = 3;
+
+	private int mState = PENDING;
+	private T mValue;
+	private Throwable mFailure;
+	/* the handle of the request completing this future */
+	private volatile RequestHandle mHandle;
+	/* callbacks added before completion, null afterwards */
+	private List<Runnable> mCallbacks = new ArrayList<Runnable>(2);
+
+	/**
+	 * completes the future with the given value, has no effect if it is already done
+	 * 
+	 * @return true if this call completed the future
+	 */
+	public boolean complete(final T value) {
+		List<Runnable> callbacks;
+		synchronized (this) {
+			if (mState != PENDING) {
+				return false;
+			}
+			mValue = value;
+			mState = SUCCEEDED;
+			callbacks = finish();
+		}
+		run(callbacks);
+		return true;
+	}
+
+	/**
+	 * completes the future with the given failure, has no effect if it is already done
+	 * 
+	 * @return true if this call completed the future
+	 */
+	public boolean fail(final Throwable failure) {
+		List<Runnable> callbacks;
+		synchronized (this) {
+			if (mState != PENDING) {
+				return false;
+			}
+			mFailure = failure;
+			mState = FAILED;
+			callbacks = finish();
+		}
+		run(callbacks);
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	boolean completeWithObject(final Object value) {
+		return complete((T) value);
+	}
+
+	/**
+	 * cancels the request completing this future, see {@link RequestHandle#cancel()}
+	 */
+	@Override
+	public boolean cancel(final boolean mayInterruptIfRunning) {
+		List<Runnable> callbacks;
+		synchronized (this) {
+			if (mState != PENDING) {
+				return false;
+			}
+			mFailure = new CancellationException();
+			mState = CANCELLED;
+			callbacks = finish();
+		}
+		RequestHandle handle = mHandle;
+		if (handle != null) {
+			handle.cancel();
+		}
+		run(callbacks);
+		return true;
+	}
+
+	/**
+	 * @return the handle of the request completing this future, e.g. to set a deadline
+	 */
+	public RequestHandle getHandle() {
+		return mHandle;
+	}
+
+	void setHandle(final RequestHandle handle) {
+		mHandle = handle;
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return mState == CANCELLED;
+	}
+
+	@Override
+	public synchronized boolean isDone() {
+		return mState != PENDING;
+	}
+
+	@Override
+	public synchronized T get() throws InterruptedException, ExecutionException {
+		while (mState == PENDING) {
+			wait();
+		}
+		return getResult();
+	}
+
+	@Override
+	public synchronized T get(final long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		long remaining = unit.toNanos(timeout);
+		while (mState == PENDING) {
+			if (remaining <= 0) {
+				throw new TimeoutException();
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			remaining = deadline - System.nanoTime();
+		}
+		return getResult();
+	}
+
+	/**
+	 * runs the callback once the future is done, right away if it is already done
+	 * 
+	 * @param callback
+	 *            informed about the value or the failure
+	 * @param executor
+	 *            the executor the callback is run on, e.g. {@link #DIRECT} or
+	 *            {@link Core#getMainThreadExecutor()}
+	 */
+	public void addCallback(final Callback<? super T> callback, final Executor executor) {
+		whenDone(new Runnable() {
+			@Override
+			public void run() {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						final boolean succeeded;
+						final T value;
+						final Throwable failure;
+						synchronized (RequestFuture.this) {
+							succeeded = mState == SUCCEEDED;
+							value = mValue;
+							failure = mFailure;
+						}
+
+						if (succeeded) {
+							callback.onSuccess(value);
+						} else {
+							callback.onFailure(failure);
+						}
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * chains a continuation which transforms the value once this future succeeded, a failure of
+	 * this future or the continuation fails the returned future. Cancelling the returned future
+	 * cancels this one.
+	 * 
+	 * @param continuation
+	 *            transforms the value
+	 * @param executor
+	 *            the executor the continuation is run on
+	 * @return a future completed with the transformed value
+	 */
+	public <R> RequestFuture<R> then(final Continuation<? super T, ? extends R> continuation, final Executor executor) {
+		final RequestFuture<R> result = new RequestFuture<R>();
+		result.propagateCancellation(this);
+		addCallback(new Callback<T>() {
+			@Override
+			public void onSuccess(final T value) {
+				try {
+					result.complete(continuation.apply(value));
+				} catch (Exception e) {
+					result.fail(e);
+				}
+			}
+
+			@Override
+			public void onFailure(final Throwable failure) {
+				result.fail(failure);
+			}
+		}, executor);
+		return result;
+	}
+
+	/**
+	 * chains a continuation which starts another request once this future succeeded, e.g. storing
+	 * the result of a networking request with {@link Core#storeAsync(RequestType, Object, int)}.
+	 * Cancelling the returned future cancels this one or the next request, whichever is running.
+	 * 
+	 * @param continuation
+	 *            starts the next request
+	 * @param executor
+	 *            the executor the continuation is run on
+	 * @return a future completed with the result of the next request
+	 */
+	public <R> RequestFuture<R> thenRequest(final Continuation<? super T, RequestFuture<R>> continuation, final Executor executor) {
+		final RequestFuture<R> result = new RequestFuture<R>();
+		result.propagateCancellation(this);
+		addCallback(new Callback<T>() {
+			@Override
+			public void onSuccess(final T value) {
+				try {
+					RequestFuture<R> next = continuation.apply(value);
+					result.propagateCancellation(next);
+					next.addCallback(new Callback<R>() {
+						@Override
+						public void onSuccess(final R nextValue) {
+							result.complete(nextValue);
+						}
+
+						@Override
+						public void onFailure(final Throwable failure) {
+							result.fail(failure);
+						}
+					}, DIRECT);
+				} catch (Exception e) {
+					result.fail(e);
+				}
+			}
+
+			@Override
+			public void onFailure(final Throwable failure) {
+				result.fail(failure);
+			}
+		}, executor);
+		return result;
+	}
+
+	/* ------------------------------------- private methods ------------------------------------- */
+
+	private void whenDone(final Runnable callback) {
+		synchronized (this) {
+			if (mState == PENDING) {
+				mCallbacks.add(callback);
+				return;
+			}
+		}
+		callback.run();
+	}
+
+	/* cancels the given future once this one has been cancelled */
+	private void propagateCancellation(final Future<?> future) {
+		whenDone(new Runnable() {
+			@Override
+			public void run() {
+				if (isCancelled()) {
+					future.cancel(false);
+				}
+			}
+		});
+	}
+
+	/* only called while holding the lock */
+	private List<Runnable> finish() {
+		List<Runnable> callbacks = mCallbacks;
+		mCallbacks = null;
+		notifyAll();
+		return callbacks;
+	}
+
+	private void run(final List<Runnable> callbacks) {
+		for (Runnable callback : callbacks) {
+			callback.run();
+		}
+	}
+
+	/* only called while holding the lock */
+	private T getResult() throws ExecutionException {
+		if (mState == CANCELLED) {
+			throw (CancellationException) mFailure;
+		}
+		if (mState == FAILED) {
+			throw new ExecutionException(mFailure);
+		}
+		return mValue;
+	}
+
+	/**
+	 * transforms the value of a succeeded future
+	 */
+	public interface Continuation<T, R> {
+		public R apply(final T value) throws Exception;
+	}
+
+	/**
+	 * informed once a future is done
+	 */
+	public interface Callback<T> {
+		public void onSuccess(final T value);
+
+		public void onFailure(final Throwable failure);
+	}
+}
@@ -0,0 +1,94 @@
+package at.codecomb.android.application.core;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = RequestHandle.java
+ * 
+ * This source is subject to Code Comb. 
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software 
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Handle of a request passed to {@link Core}, used to cancel it or to give it a deadline. A queued
+ * request which has been cancelled or has expired is dropped before it is executed, a running one
+ * can check {@link Database#isCancelled()} or {@link Networker#isCancelled()}, and its result is
+ * neither delivered nor retained.
+ * 
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+public class RequestHandle {
+	private final RequestType mRequestType;
+	private volatile boolean mCancelled;
+	/* System.nanoTime() based, 0 --> no deadline */
+	private volatile long mDeadline;
+
+	RequestHandle(final RequestType requestType) {
+		mRequestType = requestType;
+	}
+
+	public RequestType getRequestType() {
+		return mRequestType;
+	}
+
+	/**
+	 * sets a deadline, once it has passed the request expires as if it had been cancelled
+	 * 
+	 * @param timeout
+	 *            the time in milliseconds from now on
+	 * @return this handle
+	 */
+	public RequestHandle setTimeout(final long timeout) {
+		/* 0 is reserved for requests without deadline */
+		mDeadline = (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout)) | 1;
+		return this;
+	}
+
+	/**
+	 * cancels the request, it won't be executed if it is still queued and its result won't be
+	 * delivered
+	 */
+	public void cancel() {
+		if (!mCancelled) {
+			mCancelled = true;
+			onCancelled();
+		}
+	}
+
+	public boolean isCancelled() {
+		return mCancelled;
+	}
+
+	public boolean isExpired() {
+		final long deadline = mDeadline;
+		return deadline != 0 && System.nanoTime() - deadline >= 0;
+	}
+
+	/**
+	 * @return true if the request has neither been cancelled nor expired
+	 */
+	public boolean isActive() {
+		return !mCancelled && !isExpired();
+	}
+
+	/* called once the request has been cancelled */
+	void onCancelled() {
+	}
+}
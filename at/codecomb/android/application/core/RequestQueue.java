@@ -0,0 +1,126 @@
+package at.codecomb.android.application.core;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+import at.codecomb.util.concurrent.MpscQueue;
+
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = RequestQueue.java
+ * 
+ * This source is subject to Code Comb. 
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software 
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * queue of one working thread of {@link Database}. Any thread can add requests without blocking,
+ * the working thread moves them into its own heap and always takes the request with the highest
+ * aged priority (see {@link Priority}). Ordered requests of one {@link RequestType} are taken in the
+ * order they were added, only the first of them competes by priority. It inherits the highest
+ * priority of the ordered requests behind it, so they aren't held back by it.
+ * 
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+class RequestQueue<U> {
+	/* filled by any thread */
+	private final MpscQueue<Request<U>> mIncoming = new MpscQueue<Request<U>>();
+	/* only touched by the working thread, holds the first ordered request of each RequestType */
+	private final PriorityQueue<Request<U>> mScheduled = new PriorityQueue<Request<U>>();
+	/* ordered requests per RequestType in the order they were added, only touched by the working thread */
+	private final HashMap<RequestType, ArrayDeque<Request<U>>> mOrdered = new HashMap<RequestType, ArrayDeque<Request<U>>>();
+
+	/**
+	 * adds a request, can be called from any thread
+	 */
+	void offer(final Request<U> request) {
+		mIncoming.offer(request);
+	}
+
+	/**
+	 * removes the request with the highest priority, may only be called from the working thread
+	 * 
+	 * @return the request or null if the queue is empty
+	 */
+	Request<U> poll() {
+		Request<U> request;
+		while ((request = mIncoming.poll()) != null) {
+			if (request.mOrdered) {
+				addOrdered(request);
+			} else {
+				mScheduled.add(request);
+			}
+		}
+
+		request = mScheduled.poll();
+		if (request != null && request.mOrdered) {
+			/* the next ordered request of the RequestType competes from now on */
+			ArrayDeque<Request<U>> ordered = mOrdered.get(request.f);
+			ordered.poll();
+			if (!ordered.isEmpty()) {
+				mScheduled.add(ordered.peek());
+			}
+		}
+		return request;
+	}
+
+	private void addOrdered(final Request<U> request) {
+		ArrayDeque<Request<U>> ordered = mOrdered.get(request.f);
+		if (ordered == null) {
+			ordered = new ArrayDeque<Request<U>>();
+			mOrdered.put(request.f, ordered);
+		}
+		ordered.add(request);
+		if (ordered.size() == 1) {
+			mScheduled.add(request);
+			return;
+		}
+
+		/* the requests in front inherit a higher priority, they are sorted by it already */
+		Request<U> first = ordered.peek();
+		boolean firstRaised = false;
+		Iterator<Request<U>> iterator = ordered.descendingIterator();
+		iterator.next();
+		while (iterator.hasNext()) {
+			Request<U> previous = iterator.next();
+			if (previous.mSchedulingTime - request.mSchedulingTime <= 0) {
+				break;
+			}
+			if (previous == first) {
+				/* the heap has to be updated, its order must not change while it is part of it */
+				mScheduled.remove(first);
+				firstRaised = true;
+			}
+			previous.mSchedulingTime = request.mSchedulingTime;
+		}
+		if (firstRaised) {
+			mScheduled.add(first);
+		}
+	}
+
+	/**
+	 * may only be called from the working thread
+	 */
+	boolean isEmpty() {
+		return mScheduled.isEmpty() && mIncoming.isEmpty();
+	}
+}
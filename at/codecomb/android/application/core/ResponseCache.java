@@ -0,0 +1,517 @@
+package at.codecomb.android.application.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = ResponseCache.java
+ * 
+ * This source is subject to Code Comb. 
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software 
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * disk cache for the bodies of HTTP GET requests performed by {@link Networker#get(RequestType, java.net.URL)}.
+ * Responses are kept as long as the Cache-Control or Expires header allows it, afterwards they are
+ * revalidated with a conditional request using their ETag or Last-Modified header. The least
+ * recently used responses are removed once the cache exceeds its size. One response is kept per url,
+ * a response with a Vary header is only used for requests sending the same values of the named
+ * headers, a response varying on * isn't stored at all.
+ * 
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+public final class ResponseCache {
+	private static final String LOG_TAG = "ResponseCache";
+	private static final int VERSION = 2;
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final File mDirectory;
+	private final long mMaxSize;
+	/* access ordered, the eldest one is the least recently used one, guarded by this */
+	private final LinkedHashMap<String, CachedResponse> mResponses;
+	private long mSize;
+	private final ConcurrentHashMap<RequestType, Statistics> mStatistics;
+
+	/**
+	 * @param directory
+	 *            the directory holding the cached responses, used by this cache only
+	 * @param maxSize
+	 *            the maximum size of all cached bodies in bytes
+	 * @throws IOException
+	 *             if the directory can't be created
+	 */
+	ResponseCache(final File directory, final long maxSize) throws IOException {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("invalid cache size " + maxSize);
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("couldn't create " + directory);
+		}
+		mDirectory = directory;
+		mMaxSize = maxSize;
+		mResponses = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true);
+		mStatistics = new ConcurrentHashMap<RequestType, Statistics>();
+		readEntries();
+	}
+
+	/**
+	 * @param requestType
+	 *            the requestType
+	 * @return the hits, misses and revalidations of requests of the given requestType
+	 */
+	public Statistics getStatistics(final RequestType requestType) {
+		Statistics statistics = mStatistics.get(requestType);
+		if (statistics == null) {
+			Statistics created = new Statistics();
+			statistics = mStatistics.putIfAbsent(requestType, created);
+			if (statistics == null) {
+				statistics = created;
+			}
+		}
+		return statistics;
+	}
+
+	/**
+	 * answers the GET request from the cache if the cached response is fresh, else performs the
+	 * request, conditionally if the cached response can be revalidated
+	 * 
+	 * @param requestType
+	 *            the requestType the statistics are counted for
+	 * @param connection
+	 *            the prepared but not yet connected connection
+	 * @return the body of the response
+	 * @throws NetworkingException
+	 *             if the request failed
+	 */
+	byte[] fetch(final RequestType requestType, final HttpURLConnection connection) throws NetworkingException {
+		String url = connection.getURL().toString();
+		String key = getKey(url);
+		Statistics statistics = getStatistics(requestType);
+		/* can't be read anymore once connected */
+		Map<String, List<String>> requestHeaders = connection.getRequestProperties();
+
+		CachedResponse response;
+		synchronized (this) {
+			response = mResponses.get(key);
+		}
+		if (response != null && response.mVary != null && !response.mVariant.equals(getVariant(response.mVary, requestHeaders))) {
+			/* a response to a request with other values of the varying headers */
+			response = null;
+		}
+		byte[] cached = response != null ? readBody(key, url) : null;
+		if (cached != null && !response.mMustRevalidate && System.currentTimeMillis() < response.mExpiresAt) {
+			statistics.mHits.incrementAndGet();
+			return cached;
+		}
+
+		if (cached != null) {
+			if (response.mETag != null) {
+				connection.setRequestProperty("If-None-Match", response.mETag);
+			}
+			if (response.mLastModified > 0) {
+				connection.setIfModifiedSince(response.mLastModified);
+			}
+		}
+		try {
+			int status = connection.getResponseCode();
+			if (status == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+				statistics.mRevalidations.incrementAndGet();
+				CachedResponse revalidated = createResponse(connection, requestHeaders, response);
+				if (revalidated != null) {
+					store(key, url, revalidated, cached);
+				}
+				return cached;
+			}
+			checkStatus(connection, status);
+
+			byte[] body = read(connection.getInputStream());
+			statistics.mMisses.incrementAndGet();
+			CachedResponse created = status == HttpURLConnection.HTTP_OK ? createResponse(connection, requestHeaders, null) : null;
+			if (created != null && body.length <= mMaxSize) {
+				store(key, url, created, body);
+			} else if (cached != null) {
+				remove(key);
+			}
+			return body;
+		} catch (IOException e) {
+			throw new NetworkingException("GET " + url + " failed", e);
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	/**
+	 * performs the GET request without any cache
+	 */
+	static byte[] fetch(final HttpURLConnection connection) throws NetworkingException {
+		try {
+			checkStatus(connection, connection.getResponseCode());
+			return read(connection.getInputStream());
+		} catch (IOException e) {
+			throw new NetworkingException("GET " + connection.getURL() + " failed", e);
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	/* ------------------------------------- private methods ------------------------------------- */
+
+	private static void checkStatus(final HttpURLConnection connection, final int status) throws NetworkingException {
+		if (status >= 200 && status < 300) {
+			return;
+		}
+		/* server errors, timeouts and throttling may pass, client errors won't */
+		boolean retryable = status >= 500 || status == 408 || status == 429;
+		throw new NetworkingException("GET " + connection.getURL() + " failed with " + status, null, retryable);
+	}
+
+	private static byte[] read(final InputStream stream) throws IOException {
+		try {
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = stream.read(buffer)) != -1) {
+				body.write(buffer, 0, read);
+			}
+			return body.toByteArray();
+		} finally {
+			stream.close();
+		}
+	}
+
+	/*
+	 * reads the caching headers of a response, returns null if it must not be stored. The validators
+	 * and the Vary header of the previous response are kept if a 304 response doesn't repeat them.
+	 */
+	private static CachedResponse createResponse(final HttpURLConnection connection, final Map<String, List<String>> requestHeaders,
+			final CachedResponse previous) {
+		long now = System.currentTimeMillis();
+		long expiresAt = 0;
+		boolean mustRevalidate = false;
+
+		String cacheControl = connection.getHeaderField("Cache-Control");
+		if (cacheControl != null) {
+			for (String directive : cacheControl.toLowerCase(Locale.US).split(",")) {
+				directive = directive.trim();
+				if (directive.equals("no-store")) {
+					return null;
+				} else if (directive.equals("no-cache")) {
+					mustRevalidate = true;
+				} else if (directive.startsWith("max-age=")) {
+					try {
+						long age = Math.max(0, connection.getHeaderFieldInt("Age", 0));
+						expiresAt = now + (Long.parseLong(directive.substring(8).trim()) - age) * 1000;
+					} catch (NumberFormatException e) {
+						mustRevalidate = true;
+					}
+				}
+			}
+		} else {
+			String pragma = connection.getHeaderField("Pragma");
+			mustRevalidate = pragma != null && pragma.toLowerCase(Locale.US).contains("no-cache");
+			long expires = connection.getExpiration();
+			long date = connection.getDate();
+			if (expires > 0) {
+				/* relative to the clock of the server */
+				expiresAt = now + expires - (date > 0 ? date : now);
+			}
+		}
+
+		String eTag = connection.getHeaderField("ETag");
+		long lastModified = connection.getLastModified();
+		String vary = connection.getHeaderField("Vary");
+		vary = vary != null && vary.trim().length() > 0 ? vary.trim() : null;
+		if (previous != null) {
+			eTag = eTag != null ? eTag : previous.mETag;
+			lastModified = lastModified > 0 ? lastModified : previous.mLastModified;
+			vary = vary != null ? vary : previous.mVary;
+		}
+		if (expiresAt <= now && eTag == null && lastModified <= 0) {
+			/* neither fresh nor revalidatable */
+			return null;
+		}
+		String variant = null;
+		if (vary != null) {
+			variant = getVariant(vary, requestHeaders);
+			if (variant == null) {
+				/* varies on something other than the request headers */
+				return null;
+			}
+		}
+		return new CachedResponse(eTag, lastModified, expiresAt, mustRevalidate, vary, variant, 0);
+	}
+
+	private void store(final String key, final String url, final CachedResponse response, final byte[] body) {
+		File temporary = null;
+		try {
+			temporary = File.createTempFile(key, TEMPORARY_SUFFIX, mDirectory);
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+			try {
+				writeHeader(output, url, response);
+				output.writeInt(body.length);
+				output.write(body);
+			} finally {
+				output.close();
+			}
+
+			synchronized (this) {
+				if (!temporary.renameTo(new File(mDirectory, key))) {
+					throw new IOException("couldn't store " + url);
+				}
+				temporary = null;
+				CachedResponse stored = new CachedResponse(response.mETag, response.mLastModified, response.mExpiresAt, response.mMustRevalidate,
+						response.mVary, response.mVariant, body.length);
+				CachedResponse replaced = mResponses.put(key, stored);
+				mSize += body.length - (replaced != null ? replaced.mSize : 0);
+				trim();
+			}
+		} catch (IOException e) {
+			Log.w(LOG_TAG, "couldn't cache " + url, e);
+		} finally {
+			if (temporary != null) {
+				temporary.delete();
+			}
+		}
+	}
+
+	/* only called while holding the lock of this cache */
+	private void trim() {
+		Iterator<Map.Entry<String, CachedResponse>> iterator = mResponses.entrySet().iterator();
+		while (mSize > mMaxSize && iterator.hasNext()) {
+			Map.Entry<String, CachedResponse> eldest = iterator.next();
+			mSize -= eldest.getValue().mSize;
+			new File(mDirectory, eldest.getKey()).delete();
+			iterator.remove();
+		}
+	}
+
+	private synchronized void remove(final String key) {
+		CachedResponse response = mResponses.remove(key);
+		if (response != null) {
+			mSize -= response.mSize;
+			new File(mDirectory, key).delete();
+		}
+	}
+
+	/* returns null if the response has been evicted meanwhile or can't be read */
+	private byte[] readBody(final String key, final String url) {
+		try {
+			DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(mDirectory, key))));
+			try {
+				if (input.readInt() != VERSION || !input.readUTF().equals(url)) {
+					return null;
+				}
+				readHeader(input);
+				byte[] body = new byte[input.readInt()];
+				input.readFully(body);
+				return body;
+			} finally {
+				input.close();
+			}
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/* rebuilds the index from the cached responses, the least recently written first */
+	private void readEntries() {
+		File[] files = mDirectory.listFiles();
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(final File first, final File second) {
+				long difference = first.lastModified() - second.lastModified();
+				return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+			}
+		});
+
+		for (File file : files) {
+			CachedResponse response = null;
+			if (!file.getName().endsWith(TEMPORARY_SUFFIX)) {
+				try {
+					DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+					try {
+						if (input.readInt() == VERSION) {
+							input.readUTF();
+							CachedResponse header = readHeader(input);
+							response = new CachedResponse(header.mETag, header.mLastModified, header.mExpiresAt, header.mMustRevalidate, header.mVary,
+									header.mVariant, input.readInt());
+						}
+					} finally {
+						input.close();
+					}
+				} catch (IOException e) {
+					response = null;
+				}
+			}
+			if (response == null) {
+				file.delete();
+			} else {
+				mResponses.put(file.getName(), response);
+				mSize += response.mSize;
+			}
+		}
+		trim();
+	}
+
+	private static void writeHeader(final DataOutputStream output, final String url, final CachedResponse response) throws IOException {
+		output.writeInt(VERSION);
+		output.writeUTF(url);
+		output.writeUTF(response.mETag != null ? response.mETag : "");
+		output.writeLong(response.mLastModified);
+		output.writeLong(response.mExpiresAt);
+		output.writeBoolean(response.mMustRevalidate);
+		output.writeUTF(response.mVary != null ? response.mVary : "");
+		output.writeUTF(response.mVariant != null ? response.mVariant : "");
+	}
+
+	private static CachedResponse readHeader(final DataInputStream input) throws IOException {
+		String eTag = input.readUTF();
+		long lastModified = input.readLong();
+		long expiresAt = input.readLong();
+		boolean mustRevalidate = input.readBoolean();
+		String vary = input.readUTF();
+		String variant = input.readUTF();
+		return new CachedResponse(eTag.length() > 0 ? eTag : null, lastModified, expiresAt, mustRevalidate, vary.length() > 0 ? vary : null,
+				vary.length() > 0 ? variant : null, 0);
+	}
+
+	/*
+	 * the values the request sends for the headers named by the Vary header of a response, null if
+	 * the response varies on *
+	 */
+	private static String getVariant(final String vary, final Map<String, List<String>> requestHeaders) {
+		StringBuilder variant = new StringBuilder();
+		for (String name : vary.split(",")) {
+			name = name.trim();
+			if (name.equals("*")) {
+				return null;
+			} else if (name.length() == 0) {
+				continue;
+			}
+			variant.append(name.toLowerCase(Locale.US)).append(':');
+			/* header names are case insensitive, the keys of the request properties aren't */
+			for (Map.Entry<String, List<String>> header : requestHeaders.entrySet()) {
+				if (name.equalsIgnoreCase(header.getKey())) {
+					for (String value : header.getValue()) {
+						variant.append(value).append(',');
+					}
+				}
+			}
+			variant.append('\n');
+		}
+		return variant.toString();
+	}
+
+	/* the file name of the response to the given url */
+	private static String getKey(final String url) {
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(url.getBytes("UTF-8"));
+			char[] key = new char[digest.length * 2];
+			for (int i = 0; i < digest.length; i++) {
+				key[2 * i] = HEX[(digest[i] >> 4) & 0xf];
+				key[2 * i + 1] = HEX[digest[i] & 0xf];
+			}
+			return new String(key);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/* the caching headers of a stored response */
+	private static final class CachedResponse {
+		private final String mETag;
+		private final long mLastModified;
+		private final long mExpiresAt;
+		private final boolean mMustRevalidate;
+		/* the Vary header and the values the request sent for the headers named by it */
+		private final String mVary;
+		private final String mVariant;
+		private final int mSize;
+
+		private CachedResponse(final String eTag, final long lastModified, final long expiresAt, final boolean mustRevalidate, final String vary,
+				final String variant, final int size) {
+			mETag = eTag;
+			mLastModified = lastModified;
+			mExpiresAt = expiresAt;
+			mMustRevalidate = mustRevalidate;
+			mVary = vary;
+			mVariant = variant;
+			mSize = size;
+		}
+	}
+
+	/**
+	 * counts how requests of one {@link RequestType} have been answered
+	 */
+	public static final class Statistics {
+		private final AtomicLong mHits = new AtomicLong();
+		private final AtomicLong mMisses = new AtomicLong();
+		private final AtomicLong mRevalidations = new AtomicLong();
+
+		/**
+		 * @return responses served from the cache without any request
+		 */
+		public long getHitCount() {
+			return mHits.get();
+		}
+
+		/**
+		 * @return responses downloaded, including conditional requests answered with a new body
+		 */
+		public long getMissCount() {
+			return mMisses.get();
+		}
+
+		/**
+		 * @return cached responses confirmed by the server with 304 Not Modified
+		 */
+		public long getRevalidationCount() {
+			return mRevalidations.get();
+		}
+	}
+}
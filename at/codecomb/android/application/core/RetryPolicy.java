@@ -0,0 +1,78 @@
+package at.codecomb.android.application.core;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = RetryPolicy.java
+ * 
+ * This source is subject to Code Comb. 
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software 
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * how often and after which delay a failed networking request is executed again. The delay grows
+ * exponentially with every attempt and is randomized between zero and its current maximum (full
+ * jitter), so clients failing at the same time don't retry at the same time.
+ * 
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+final class RetryPolicy {
+	private static final Random mRandom = new Random();
+
+	private final int mMaxRetries;
+	private final long mInitialBackoff;
+	private final long mMaxBackoff;
+
+	/**
+	 * @param maxRetries
+	 *            how often a request is executed again after its first attempt
+	 * @param initialBackoff
+	 *            the maximum delay before the first retry in milliseconds
+	 * @param maxBackoff
+	 *            the upper bound of the delay in milliseconds
+	 */
+	RetryPolicy(final int maxRetries, final long initialBackoff, final long maxBackoff) {
+		if (maxRetries < 0 || initialBackoff < 0 || maxBackoff < initialBackoff) {
+			throw new IllegalArgumentException("invalid retry policy " + maxRetries + ", " + initialBackoff + ", " + maxBackoff);
+		}
+		mMaxRetries = maxRetries;
+		mInitialBackoff = TimeUnit.MILLISECONDS.toNanos(initialBackoff);
+		mMaxBackoff = TimeUnit.MILLISECONDS.toNanos(maxBackoff);
+	}
+
+	boolean canRetry(final int retries) {
+		return retries < mMaxRetries;
+	}
+
+	/**
+	 * @param retries
+	 *            the amount of retries so far
+	 * @return the delay in nanoseconds before the next attempt
+	 */
+	long getBackoff(final int retries) {
+		long backoff = mInitialBackoff;
+		for (int i = 0; i < retries && backoff < mMaxBackoff; i++) {
+			backoff <<= 1;
+		}
+		backoff = Math.min(backoff, mMaxBackoff);
+		return backoff <= 0 ? 0 : (long) (mRandom.nextDouble() * backoff);
+	}
+}
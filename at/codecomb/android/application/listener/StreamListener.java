@@ -0,0 +1,55 @@
+package at.codecomb.android.application.listener;
+
+import java.util.List;
+
+import at.codecomb.android.application.core.RequestType;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = StreamListener.java
+ * 
+ * This source is subject to Code Comb. 
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software 
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Listener pattern used in {@link at.codecomb.android.application.core.Core Core} to hand over the
+ * result of a streaming load page by page, while the loading thread is still producing it
+ * 
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+public interface StreamListener<T> {
+	/**
+	 * this method is called on the listening main-thread each time a page has been loaded
+	 * 
+	 * @param requestType
+	 *            the request the page belongs to
+	 * @param page
+	 *            the next rows in the order they were loaded
+	 */
+	public void pageLoaded(final RequestType requestType, final List<T> page);
+
+	/**
+	 * this method is called on the listening main-thread after the last page has been delivered
+	 * 
+	 * @param requestType
+	 *            the request which has been completed
+	 */
+	public void streamCompleted(final RequestType requestType);
+}
@@ -0,0 +1,88 @@
+package at.codecomb.sensorfusion;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = ComplementaryFilter.java
+ * 
+ * This source is subject to Code Comb. 
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software 
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+/**
+ * the cheapest filter, the gyroscope's angular velocity is integrated straight into the orientation, while the orientation measured by the
+ * accelerometer and the compass is blended in with slerp to compensate the gyroscope's drift. The blending weight is scaled with the time between
+ * two gyroscope events, so the filter behaves the same at every sensor rate.
+ * 
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+public class ComplementaryFilter extends FusionFilter {
+	/* default weight of the gyroscope's orientation per 30 ms */
+	public static final float DEFAULT_COEFFICIENT = 0.98f;
+	private static final float DEFAULT_PERIOD = 0.03f;
+
+	/* weight of the measured orientation per second, scaled with the time between two gyroscope events */
+	private final float mCorrectionRate;
+
+	/* orientation measured by the accelerometer and the compass */
+	private final float[] mReference = new float[4];
+
+	/* preallocated buffer */
+	private final float[] mDelta = new float[4];
+
+	public ComplementaryFilter() {
+		this(DEFAULT_COEFFICIENT);
+	}
+
+	/**
+	 * @param coefficient
+	 *            the weight of the gyroscope's orientation per 30 ms, the measured orientation gets a weight of 1 - coefficient
+	 */
+	public ComplementaryFilter(final float coefficient) {
+		mCorrectionRate = (float) -Math.log(coefficient) / DEFAULT_PERIOD;
+		Quaternion.setIdentity(mReference);
+	}
+
+	@Override
+	protected void onInitialised() {
+		System.arraycopy(mOrientation, 0, mReference, 0, 4);
+	}
+
+	@Override
+	protected void onAccelerometerCompass(final float[] gravity, final float[] geomagnetic, final float[] rotationMatrix) {
+		Quaternion.fromRotationMatrix(rotationMatrix, mReference);
+	}
+
+	@Override
+	protected void onGyroscope(final float[] rates, final float dt) {
+		Quaternion.fromAngularVelocity(rates[0], rates[1], rates[2], dt, mDelta);
+		/* the rates are measured in the device's frame */
+		Quaternion.multiply(mOrientation, mDelta, mOrientation);
+		/* 1 - coefficient^(dt / period) to first order, which is exact enough for the short time between two events */
+		Quaternion.slerp(mOrientation, mReference, Math.min(1.0f, mCorrectionRate * dt), mOrientation);
+	}
+
+	/**
+	 * @param orientation
+	 *            the array azimuth, pitch and roll measured by the accelerometer and the compass are stored in (in radians)
+	 */
+	public void getReferenceOrientation(final float[] orientation) {
+		Quaternion.toOrientation(mReference, orientation);
+	}
+}
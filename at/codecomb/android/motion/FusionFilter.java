@@ -0,0 +1,190 @@
+package at.codecomb.sensorfusion;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = FusionFilter.java
+ * 
+ * This source is subject to Code Comb. 
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software 
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+/**
+ * base of the filters fusing the gyroscope with the accelerometer and the compass. The orientation is kept as a unit quaternion rotating the
+ * device's into the world's coordinate system (x = east, y = north, z = up), the filters only differ in how they correct the gyroscope's drift with
+ * the orientation measured by the accelerometer and the compass, trading CPU time for accuracy. No filter allocates while updating. Plain Java
+ * without any Android class, so it can be used on the JVM as well. Not thread-safe.
+ * 
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+public abstract class FusionFilter {
+	private static final float NS2S = 1.0f / 1000000000.0f;
+	/* below this magnitude the device is in free fall or close to the magnetic north pole */
+	private static final float MIN_HORIZONTAL_MAGNITUDE = 0.1f;
+
+	/* fused orientation (w, x, y, z) */
+	protected final float[] mOrientation = new float[4];
+	private boolean mInitialised;
+	/* timestamp of the last gyroscope event in nanoseconds */
+	private long mTimestamp;
+
+	/* preallocated buffer */
+	private final float[] mRotationMatrix = new float[9];
+
+	protected FusionFilter() {
+		Quaternion.setIdentity(mOrientation);
+	}
+
+	/**
+	 * passes the latest values of the accelerometer and the compass to the filter, the first orientation measured also initialises the orientation
+	 * 
+	 * @param gravity
+	 *            the accelerometer's values
+	 * @param geomagnetic
+	 *            the compass' values
+	 * @return false if no orientation could be measured, e.g. in free fall
+	 */
+	public final boolean setAccelerometerCompass(final float[] gravity, final float[] geomagnetic) {
+		if (!getRotationMatrix(mRotationMatrix, gravity, geomagnetic)) {
+			return false;
+		}
+		if (!mInitialised) {
+			Quaternion.fromRotationMatrix(mRotationMatrix, mOrientation);
+			mInitialised = true;
+			onInitialised();
+		}
+		onAccelerometerCompass(gravity, geomagnetic, mRotationMatrix);
+		return true;
+	}
+
+	/**
+	 * passes the angular velocity measured by the gyroscope to the filter, which is ignored until the orientation is initialised
+	 * 
+	 * @param rates
+	 *            the gyroscope's values in rad/s
+	 * @param timestamp
+	 *            the timestamp of the event in nanoseconds
+	 */
+	public final void updateGyroscope(final float[] rates, final long timestamp) {
+		if (mInitialised && mTimestamp != 0) {
+			onGyroscope(rates, (timestamp - mTimestamp) * NS2S);
+		}
+		mTimestamp = timestamp;
+	}
+
+	/**
+	 * invoked once the orientation was initialised with the first orientation measured by the accelerometer and the compass
+	 */
+	protected void onInitialised() {
+	}
+
+	/**
+	 * invoked with each orientation measured by the accelerometer and the compass
+	 * 
+	 * @param gravity
+	 *            the accelerometer's values
+	 * @param geomagnetic
+	 *            the compass' values
+	 * @param rotationMatrix
+	 *            the measured orientation as calculated by {@link #getRotationMatrix(float[], float[], float[])}, only valid during the call
+	 */
+	protected abstract void onAccelerometerCompass(final float[] gravity, final float[] geomagnetic, final float[] rotationMatrix);
+
+	/**
+	 * invoked with each gyroscope event once the orientation is initialised, has to update mOrientation
+	 * 
+	 * @param rates
+	 *            the gyroscope's values in rad/s
+	 * @param dt
+	 *            the time since the last gyroscope event in seconds
+	 */
+	protected abstract void onGyroscope(final float[] rates, final float dt);
+
+	/**
+	 * @return true once the accelerometer and the compass delivered the first orientation
+	 */
+	public boolean isInitialised() {
+		return mInitialised;
+	}
+
+	/**
+	 * @param orientation
+	 *            the array azimuth, pitch and roll of the fused orientation are stored in (in radians)
+	 */
+	public void getOrientation(final float[] orientation) {
+		Quaternion.toOrientation(mOrientation, orientation);
+	}
+
+	/**
+	 * @param quaternion
+	 *            the array the fused orientation is stored in (w, x, y, z)
+	 */
+	public void getQuaternion(final float[] quaternion) {
+		System.arraycopy(mOrientation, 0, quaternion, 0, 4);
+	}
+
+	/**
+	 * calculates the rotation matrix from the device's to the world's coordinate system like SensorManager.getRotationMatrix does
+	 * 
+	 * @param r
+	 *            the 3x3 matrix the rotation is stored in
+	 * @param gravity
+	 *            the accelerometer's values
+	 * @param geomagnetic
+	 *            the compass' values
+	 * @return false if the device is in free fall or close to the magnetic north pole
+	 */
+	public static boolean getRotationMatrix(final float[] r, final float[] gravity, final float[] geomagnetic) {
+		float ax = gravity[0], ay = gravity[1], az = gravity[2];
+		final float ex = geomagnetic[0], ey = geomagnetic[1], ez = geomagnetic[2];
+
+		/* east = magnetic field x gravity */
+		float hx = ey * az - ez * ay;
+		float hy = ez * ax - ex * az;
+		float hz = ex * ay - ey * ax;
+		final float normH = (float) Math.sqrt(hx * hx + hy * hy + hz * hz);
+		if (normH < MIN_HORIZONTAL_MAGNITUDE) {
+			return false;
+		}
+		final float inverseH = 1.0f / normH;
+		hx *= inverseH;
+		hy *= inverseH;
+		hz *= inverseH;
+		final float inverseA = 1.0f / (float) Math.sqrt(ax * ax + ay * ay + az * az);
+		ax *= inverseA;
+		ay *= inverseA;
+		az *= inverseA;
+
+		/* north = gravity x east */
+		final float mx = ay * hz - az * hy;
+		final float my = az * hx - ax * hz;
+		final float mz = ax * hy - ay * hx;
+
+		r[0] = hx;
+		r[1] = hy;
+		r[2] = hz;
+		r[3] = mx;
+		r[4] = my;
+		r[5] = mz;
+		r[6] = ax;
+		r[7] = ay;
+		r[8] = az;
+		return true;
+	}
+}
@@ -0,0 +1,121 @@
+package at.codecomb.sensorfusion;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = KalmanFilter.java
+ * 
+ * This source is subject to Code Comb. 
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software 
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+/**
+ * a small multiplicative extended Kalman filter. The state is the orientation quaternion, the filter tracks the variance of its error as a rotation
+ * around each axis of the world frame. The gyroscope predicts the orientation and lets the variance grow, every orientation measured by the
+ * accelerometer and the compass corrects it with the Kalman gain of each axis. Since tilt (x and y) is measured by the accelerometer and heading (z)
+ * by the compass, both get their own measurement noise, and the accelerometer's one grows while the device is accelerated. The error is measured
+ * directly, so the measurement matrix is the identity and the covariance stays diagonal, which keeps the update at a few multiplications per axis.
+ * 
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+public class KalmanFilter extends FusionFilter {
+	/* default variances in rad^2, the gyroscope's one per second */
+	public static final float DEFAULT_GYROSCOPE_VARIANCE = 0.0001f;
+	public static final float DEFAULT_TILT_VARIANCE = 0.0004f;
+	public static final float DEFAULT_HEADING_VARIANCE = 0.01f;
+
+	private static final float GRAVITY = 9.80665f;
+	/* how fast the tilt variance grows with the relative deviation of the accelerometer's magnitude from gravity */
+	private static final float ACCELERATION_PENALTY = 100.0f;
+	private static final float INITIAL_VARIANCE = 0.1f;
+
+	private final float mGyroscopeVariance;
+	private final float mTiltVariance;
+	private final float mHeadingVariance;
+
+	/* diagonal of the error covariance around the world's x-, y- and z-axis */
+	private float mPx = INITIAL_VARIANCE, mPy = INITIAL_VARIANCE, mPz = INITIAL_VARIANCE;
+
+	/* preallocated buffers */
+	private final float[] mReference = new float[4];
+	private final float[] mDelta = new float[4];
+
+	public KalmanFilter() {
+		this(DEFAULT_GYROSCOPE_VARIANCE, DEFAULT_TILT_VARIANCE, DEFAULT_HEADING_VARIANCE);
+	}
+
+	/**
+	 * @param gyroscopeVariance
+	 *            variance of the gyroscope's integrated angle per second in rad^2
+	 * @param tiltVariance
+	 *            variance of pitch and roll measured by the resting accelerometer in rad^2
+	 * @param headingVariance
+	 *            variance of the heading measured by the compass in rad^2
+	 */
+	public KalmanFilter(final float gyroscopeVariance, final float tiltVariance, final float headingVariance) {
+		mGyroscopeVariance = gyroscopeVariance;
+		mTiltVariance = tiltVariance;
+		mHeadingVariance = headingVariance;
+	}
+
+	@Override
+	protected void onGyroscope(final float[] rates, final float dt) {
+		/* predict, the error is expressed in the world frame, so rotating the device does not change it */
+		Quaternion.fromAngularVelocity(rates[0], rates[1], rates[2], dt, mDelta);
+		Quaternion.multiply(mOrientation, mDelta, mOrientation);
+		Quaternion.normalise(mOrientation);
+
+		final float noise = mGyroscopeVariance * dt;
+		mPx += noise;
+		mPy += noise;
+		mPz += noise;
+	}
+
+	@Override
+	protected void onAccelerometerCompass(final float[] gravity, final float[] geomagnetic, final float[] rotationMatrix) {
+		Quaternion.fromRotationMatrix(rotationMatrix, mReference);
+
+		/* error = reference * conjugate(orientation), the rotation from the estimated to the measured orientation in the world frame */
+		final float rw = mReference[0], rx = mReference[1], ry = mReference[2], rz = mReference[3];
+		final float ow = mOrientation[0], ox = mOrientation[1], oy = mOrientation[2], oz = mOrientation[3];
+		final float ew = rw * ow + rx * ox + ry * oy + rz * oz;
+		/* twice the vector part is the rotation vector for small errors, the sign of ew picks the shorter way */
+		final float sign = ew < 0.0f ? -2.0f : 2.0f;
+		final float ex = sign * (-rw * ox + rx * ow - ry * oz + rz * oy);
+		final float ey = sign * (-rw * oy + rx * oz + ry * ow - rz * ox);
+		final float ez = sign * (-rw * oz - rx * oy + ry * ox + rz * ow);
+
+		/* linear acceleration makes the accelerometer a worse measurement of gravity */
+		final float magnitude = (float) Math.sqrt(gravity[0] * gravity[0] + gravity[1] * gravity[1] + gravity[2] * gravity[2]);
+		final float deviation = (magnitude - GRAVITY) / GRAVITY;
+		final float tiltVariance = mTiltVariance * (1.0f + ACCELERATION_PENALTY * deviation * deviation);
+
+		final float kx = mPx / (mPx + tiltVariance);
+		final float ky = mPy / (mPy + tiltVariance);
+		final float kz = mPz / (mPz + mHeadingVariance);
+		mPx *= 1.0f - kx;
+		mPy *= 1.0f - ky;
+		mPz *= 1.0f - kz;
+
+		/* correct the orientation by the weighted error */
+		Quaternion.fromAngularVelocity(kx * ex, ky * ey, kz * ez, 1.0f, mDelta);
+		Quaternion.multiply(mDelta, mOrientation, mOrientation);
+		Quaternion.normalise(mOrientation);
+	}
+}
@@ -0,0 +1,158 @@
+package at.codecomb.sensorfusion;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = MadgwickFilter.java
+ * 
+ * This source is subject to Code Comb. 
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software 
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+/**
+ * Madgwick's gradient descent filter (MARG version). On every gyroscope event one gradient descent step moves the orientation towards the one
+ * measured by the accelerometer and the compass, the compass only corrects the heading, so magnetic noise does not disturb pitch and roll. More
+ * expensive than the {@link ComplementaryFilter} but without any trigonometric function per event.
+ * 
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+public class MadgwickFilter extends FusionFilter {
+	/* default gain of the gradient descent step, about sqrt(3/4) times the gyroscope's error in rad/s */
+	public static final float DEFAULT_BETA = 0.1f;
+
+	/* Madgwick's world frame has magnetic north on the x-axis, it is rotated by -90 degrees around z compared to ours */
+	private static final float[] FROM_WORLD = { (float) Math.sqrt(0.5), 0.0f, 0.0f, (float) -Math.sqrt(0.5) };
+	private static final float[] TO_WORLD = { (float) Math.sqrt(0.5), 0.0f, 0.0f, (float) Math.sqrt(0.5) };
+
+	private final float mBeta;
+
+	/* orientation in Madgwick's world frame (w, x, y, z) */
+	private final float[] mState = new float[4];
+	/* latest normalised accelerometer and compass values, zero until the first values arrived */
+	private float mAx, mAy, mAz;
+	private float mMx, mMy, mMz;
+
+	public MadgwickFilter() {
+		this(DEFAULT_BETA);
+	}
+
+	/**
+	 * @param beta
+	 *            gain of the gradient descent step, higher values trust the accelerometer and the compass more
+	 */
+	public MadgwickFilter(final float beta) {
+		mBeta = beta;
+	}
+
+	@Override
+	protected void onInitialised() {
+		Quaternion.multiply(FROM_WORLD, mOrientation, mState);
+	}
+
+	@Override
+	protected void onAccelerometerCompass(final float[] gravity, final float[] geomagnetic, final float[] rotationMatrix) {
+		/* getRotationMatrix already made sure neither vector is zero */
+		final float inverseA = 1.0f / (float) Math.sqrt(gravity[0] * gravity[0] + gravity[1] * gravity[1] + gravity[2] * gravity[2]);
+		mAx = gravity[0] * inverseA;
+		mAy = gravity[1] * inverseA;
+		mAz = gravity[2] * inverseA;
+
+		final float inverseM = 1.0f / (float) Math.sqrt(geomagnetic[0] * geomagnetic[0] + geomagnetic[1] * geomagnetic[1] + geomagnetic[2]
+				* geomagnetic[2]);
+		mMx = geomagnetic[0] * inverseM;
+		mMy = geomagnetic[1] * inverseM;
+		mMz = geomagnetic[2] * inverseM;
+	}
+
+	@Override
+	protected void onGyroscope(final float[] rates, final float dt) {
+		final float gx = rates[0], gy = rates[1], gz = rates[2];
+		final float ax = mAx, ay = mAy, az = mAz;
+		final float mx = mMx, my = mMy, mz = mMz;
+		float q0 = mState[0], q1 = mState[1], q2 = mState[2], q3 = mState[3];
+
+		/* rate of change of the quaternion measured by the gyroscope */
+		float qDot0 = 0.5f * (-q1 * gx - q2 * gy - q3 * gz);
+		float qDot1 = 0.5f * (q0 * gx + q2 * gz - q3 * gy);
+		float qDot2 = 0.5f * (q0 * gy - q1 * gz + q3 * gx);
+		float qDot3 = 0.5f * (q0 * gz + q1 * gy - q2 * gx);
+
+		final float twoQ0mx = 2.0f * q0 * mx;
+		final float twoQ0my = 2.0f * q0 * my;
+		final float twoQ0mz = 2.0f * q0 * mz;
+		final float twoQ1mx = 2.0f * q1 * mx;
+		final float twoQ0 = 2.0f * q0;
+		final float twoQ1 = 2.0f * q1;
+		final float twoQ2 = 2.0f * q2;
+		final float twoQ3 = 2.0f * q3;
+		final float twoQ0q2 = 2.0f * q0 * q2;
+		final float twoQ2q3 = 2.0f * q2 * q3;
+		final float q0q0 = q0 * q0;
+		final float q0q1 = q0 * q1;
+		final float q0q2 = q0 * q2;
+		final float q0q3 = q0 * q3;
+		final float q1q1 = q1 * q1;
+		final float q1q2 = q1 * q2;
+		final float q1q3 = q1 * q3;
+		final float q2q2 = q2 * q2;
+		final float q2q3 = q2 * q3;
+		final float q3q3 = q3 * q3;
+
+		/* direction of the earth's magnetic field in the world frame, only its horizontal and vertical part are used */
+		final float hx = mx * q0q0 - twoQ0my * q3 + twoQ0mz * q2 + mx * q1q1 + twoQ1 * my * q2 + twoQ1 * mz * q3 - mx * q2q2 - mx * q3q3;
+		final float hy = twoQ0mx * q3 + my * q0q0 - twoQ0mz * q1 + twoQ1mx * q2 - my * q1q1 + my * q2q2 + twoQ2 * mz * q3 - my * q3q3;
+		final float twoBx = (float) Math.sqrt(hx * hx + hy * hy);
+		final float twoBz = -twoQ0mx * q2 + twoQ0my * q1 + mz * q0q0 + twoQ1mx * q3 - mz * q1q1 + twoQ2 * my * q3 - mz * q2q2 + mz * q3q3;
+		final float fourBx = 2.0f * twoBx;
+		final float fourBz = 2.0f * twoBz;
+
+		/* errors between the measured and the expected gravity and magnetic field */
+		final float fgx = 2.0f * q1q3 - twoQ0q2 - ax;
+		final float fgy = 2.0f * q0q1 + twoQ2q3 - ay;
+		final float fgz = 1.0f - 2.0f * q1q1 - 2.0f * q2q2 - az;
+		final float fbx = twoBx * (0.5f - q2q2 - q3q3) + twoBz * (q1q3 - q0q2) - mx;
+		final float fby = twoBx * (q1q2 - q0q3) + twoBz * (q0q1 + q2q3) - my;
+		final float fbz = twoBx * (q0q2 + q1q3) + twoBz * (0.5f - q1q1 - q2q2) - mz;
+
+		/* gradient of the errors */
+		float s0 = -twoQ2 * fgx + twoQ1 * fgy - twoBz * q2 * fbx + (-twoBx * q3 + twoBz * q1) * fby + twoBx * q2 * fbz;
+		float s1 = twoQ3 * fgx + twoQ0 * fgy - 2.0f * twoQ1 * fgz + twoBz * q3 * fbx + (twoBx * q2 + twoBz * q0) * fby + (twoBx * q3 - fourBz * q1)
+				* fbz;
+		float s2 = -twoQ0 * fgx + twoQ3 * fgy - 2.0f * twoQ2 * fgz + (-fourBx * q2 - twoBz * q0) * fbx + (twoBx * q1 + twoBz * q3) * fby
+				+ (twoBx * q0 - fourBz * q2) * fbz;
+		float s3 = twoQ1 * fgx + twoQ2 * fgy + (-fourBx * q3 + twoBz * q1) * fbx + (-twoBx * q0 + twoBz * q2) * fby + twoBx * q1 * fbz;
+
+		final float normS = (float) Math.sqrt(s0 * s0 + s1 * s1 + s2 * s2 + s3 * s3);
+		/* the gradient vanishes once the orientation matches the measurement or no values arrived yet */
+		if (normS > 0.0f) {
+			final float step = mBeta / normS;
+			qDot0 -= step * s0;
+			qDot1 -= step * s1;
+			qDot2 -= step * s2;
+			qDot3 -= step * s3;
+		}
+
+		mState[0] = q0 + qDot0 * dt;
+		mState[1] = q1 + qDot1 * dt;
+		mState[2] = q2 + qDot2 * dt;
+		mState[3] = q3 + qDot3 * dt;
+		Quaternion.normalise(mState);
+		Quaternion.multiply(TO_WORLD, mState, mOrientation);
+	}
+}
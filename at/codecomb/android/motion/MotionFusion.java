@@ -0,0 +1,227 @@
+package at.codecomb.sensorfusion;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = MotionFusion.java
+ * 
+ * This source is subject to Code Comb. 
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software 
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+/**
+ * calculates MotionSensor's angles from the timestamped values of the accelerometer, the compass and the gyroscope. Without a gyroscope the angles
+ * are calculated from the accelerometer and the compass only, otherwise the given FusionFilter fuses all three sensors. The angles are calculated at
+ * most once per output interval, measured with the sensor's timestamps. Plain Java without any Android class, so recorded traces can be replayed on
+ * the JVM (see {@link SensorTraceReplay}).
+ * 
+ * The values have to be passed from a single thread, the angles can be read from any thread.
+ * 
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+public class MotionFusion {
+	/* sensor types, the same values as Android's Sensor.TYPE_* */
+	public static final int TYPE_ACCELEROMETER = 1;
+	public static final int TYPE_MAGNETIC_FIELD = 2;
+	public static final int TYPE_GYROSCOPE = 4;
+
+	/* output rates, the minimum time in milliseconds between two calculations of the angles */
+	public static final int RATE_HIGH = 30;
+	public static final int RATE_MID = 100;
+	public static final int RATE_LOW = 250;
+
+	/* bit offsets of the angles within mAngles */
+	private static final int ROLL = 48;
+	private static final int AZIMUTH = 32;
+	private static final int APPROX_PITCH = 16;
+	private static final int ACCURATE_PITCH = 0;
+
+	/*
+	 * calculated angles packed into one long (roll, azimuth, approx pitch, accurate pitch, 16 bits each), so they are published and read all at once
+	 * without a lock, while ApproxPitch is only a angle used for a noisless turning angle
+	 */
+	private volatile long mAngles;
+	/* the ApproxPitch last published, only used by the sensor thread */
+	private int mApproxPitch;
+
+	/* minimum time between two calculations of the angles in nanoseconds */
+	private volatile long mOutputInterval = RATE_HIGH * 1000000L;
+	/* timestamp of the sensor event the angles were last calculated for */
+	private long mOutputTimestamp;
+
+	/* fuses the gyroscope with accelerometer and compass, null without a gyroscope */
+	private final FusionFilter mFusionFilter;
+
+	/* vector for each sensor */
+	private final float[] mAccelerometerVector = new float[3];
+	private final float[] mCompassVector = new float[3];
+
+	/* orientation for only using accelerometer and compass */
+	private final float[] mRotationMatrix = new float[9];
+	private final float[] mAccelerometerCompassQuaternion = new float[4];
+	/* orientation calculated either way */
+	private final float[] mOrientation = new float[3];
+
+	/**
+	 * @param fusionFilter
+	 *            the filter fusing the gyroscope with the accelerometer and the compass or null if there is no gyroscope
+	 */
+	public MotionFusion(final FusionFilter fusionFilter) {
+		mFusionFilter = fusionFilter;
+	}
+
+	/**
+	 * sets how often the angles are calculated
+	 * 
+	 * @param outputRate
+	 *            minimum time in milliseconds between two calculations, e.g. RATE_HIGH
+	 */
+	public void setOutputRate(final int outputRate) {
+		mOutputInterval = outputRate * 1000000L;
+	}
+
+	/**
+	 * passes the values of a sensor event, values of other sensors are ignored
+	 * 
+	 * @param type
+	 *            the type of the sensor, e.g. TYPE_GYROSCOPE
+	 * @param timestamp
+	 *            the timestamp of the event in nanoseconds
+	 * @param values
+	 *            the event's values, only the first three are used
+	 * @return true if new angles have been calculated
+	 */
+	public boolean onSensorChanged(final int type, final long timestamp, final float[] values) {
+		switch (type) {
+		case TYPE_ACCELEROMETER:
+			System.arraycopy(values, 0, mAccelerometerVector, 0, 3);
+			return calculateAccelerometerCompassOrientation(timestamp);
+
+		case TYPE_MAGNETIC_FIELD:
+			System.arraycopy(values, 0, mCompassVector, 0, 3);
+			return false;
+
+		case TYPE_GYROSCOPE:
+			return calculateGyroscopeData(timestamp, values);
+
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * calculates the current orientation of the phone with only the accelerometer and the compass, if no gyroscope is available this method also sets
+	 * the three angles accordingly
+	 */
+	private boolean calculateAccelerometerCompassOrientation(final long timestamp) {
+		if (mFusionFilter != null) {
+			mFusionFilter.setAccelerometerCompass(mAccelerometerVector, mCompassVector);
+			return false;
+		}
+
+		if (!isOutputDue(timestamp) || !FusionFilter.getRotationMatrix(mRotationMatrix, mAccelerometerVector, mCompassVector)) {
+			return false;
+		}
+		Quaternion.fromRotationMatrix(mRotationMatrix, mAccelerometerCompassQuaternion);
+		Quaternion.toOrientation(mAccelerometerCompassQuaternion, mOrientation);
+		setEulerAngles(mOrientation);
+		return true;
+	}
+
+	/**
+	 * passes the gyroscope's angular velocity to the fusion filter and calculates the fused orientation at the output rate, the gyroscope is used
+	 * once the accelerometer and the compass delivered the initial orientation
+	 */
+	private boolean calculateGyroscopeData(final long timestamp, final float[] values) {
+		if (mFusionFilter == null) {
+			return false;
+		}
+
+		mFusionFilter.updateGyroscope(values, timestamp);
+		if (!mFusionFilter.isInitialised() || !isOutputDue(timestamp)) {
+			return false;
+		}
+		mFusionFilter.getOrientation(mOrientation);
+		setEulerAngles(mOrientation);
+		return true;
+	}
+
+	/* checks if the angles are due to be calculated again */
+	private boolean isOutputDue(final long timestamp) {
+		if (mOutputTimestamp != 0 && timestamp - mOutputTimestamp < mOutputInterval) {
+			return false;
+		}
+		mOutputTimestamp = timestamp;
+		return true;
+	}
+
+	/* sets the three angles (roll, azimuth and pitch) */
+	private void setEulerAngles(final float[] orientation) {
+		final int azimuth = (int) Math.toDegrees(orientation[1]);
+		final int roll = (int) (Math.toDegrees(orientation[2]) + 90) % 360;
+
+		double tempPitch = Math.toDegrees(orientation[0]) + 180;
+		final int accuratePitch = (int) tempPitch;
+		if (!(mApproxPitch - 2 <= tempPitch && tempPitch <= mApproxPitch + 2))
+			mApproxPitch = (int) tempPitch;
+
+		/* publish all angles with a single volatile write, so readers never see a mix of old and new angles */
+		mAngles = (roll & 0xFFFFL) << ROLL | (azimuth & 0xFFFFL) << AZIMUTH | (mApproxPitch & 0xFFFFL) << APPROX_PITCH
+				| (accuratePitch & 0xFFFFL) << ACCURATE_PITCH;
+	}
+
+	/*
+	 * ---------------------------------------------------------- Getter
+	 */
+
+	public int getRoll() {
+		return getAngle(mAngles, ROLL);
+	}
+
+	public int getAzimuth() {
+		return getAngle(mAngles, AZIMUTH);
+	}
+
+	public int getApproxPitch() {
+		return getAngle(mAngles, APPROX_PITCH);
+	}
+
+	public int getAccuratePitch() {
+		return getAngle(mAngles, ACCURATE_PITCH);
+	}
+
+	/**
+	 * gets all angles calculated at the same time, unlike calling the single getters one after the other
+	 * 
+	 * @param angles
+	 *            array of at least four elements roll, azimuth, approximated and accurate pitch are stored in
+	 */
+	public void getAngles(final int[] angles) {
+		final long packed = mAngles;
+		angles[0] = getAngle(packed, ROLL);
+		angles[1] = getAngle(packed, AZIMUTH);
+		angles[2] = getAngle(packed, APPROX_PITCH);
+		angles[3] = getAngle(packed, ACCURATE_PITCH);
+	}
+
+	private static int getAngle(final long angles, final int offset) {
+		/* the cast to short restores the sign */
+		return (short) (angles >>> offset);
+	}
+}
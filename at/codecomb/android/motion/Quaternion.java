@@ -0,0 +1,195 @@
+package at.codecomb.sensorfusion;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = Quaternion.java
+ * 
+ * This source is subject to Code Comb. 
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software 
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+/**
+ * quaternion operations on float arrays in the order w, x, y, z. Every operation writes its result into a given array, which may be one of its
+ * operands, so nothing is allocated while calculating. Plain Java without any Android class, so it can be used on the JVM as well.
+ * 
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+public final class Quaternion {
+	private static final float EPSILON = 0.000000001f;
+	/* below this angle slerp falls back to a normalised linear interpolation */
+	private static final float SLERP_THRESHOLD = 0.9995f;
+
+	private Quaternion() {
+	}
+
+	public static void setIdentity(final float[] q) {
+		q[0] = 1.0f;
+		q[1] = 0.0f;
+		q[2] = 0.0f;
+		q[3] = 0.0f;
+	}
+
+	/**
+	 * multiplies a and b (a rotation by a followed by a rotation by b in the rotated frame) and stores the result in result
+	 */
+	public static void multiply(final float[] a, final float[] b, final float[] result) {
+		final float aw = a[0], ax = a[1], ay = a[2], az = a[3];
+		final float bw = b[0], bx = b[1], by = b[2], bz = b[3];
+
+		result[0] = aw * bw - ax * bx - ay * by - az * bz;
+		result[1] = aw * bx + ax * bw + ay * bz - az * by;
+		result[2] = aw * by - ax * bz + ay * bw + az * bx;
+		result[3] = aw * bz + ax * by - ay * bx + az * bw;
+	}
+
+	public static void normalise(final float[] q) {
+		final float norm = (float) Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3]);
+		if (norm > EPSILON) {
+			final float inverse = 1.0f / norm;
+			q[0] *= inverse;
+			q[1] *= inverse;
+			q[2] *= inverse;
+			q[3] *= inverse;
+		} else {
+			setIdentity(q);
+		}
+	}
+
+	/**
+	 * calculates the rotation of a gyroscope measuring the given angular velocity for the given time
+	 * 
+	 * @param wx
+	 *            angular velocity around the x-axis in rad/s
+	 * @param wy
+	 *            angular velocity around the y-axis in rad/s
+	 * @param wz
+	 *            angular velocity around the z-axis in rad/s
+	 * @param dt
+	 *            the time in seconds
+	 * @param result
+	 *            the quaternion the rotation is stored in
+	 */
+	public static void fromAngularVelocity(final float wx, final float wy, final float wz, final float dt, final float[] result) {
+		final float omegaMagnitude = (float) Math.sqrt(wx * wx + wy * wy + wz * wz);
+		if (omegaMagnitude <= EPSILON) {
+			setIdentity(result);
+			return;
+		}
+
+		final float thetaOverTwo = omegaMagnitude * dt / 2.0f;
+		final float sinOverMagnitude = (float) Math.sin(thetaOverTwo) / omegaMagnitude;
+		result[0] = (float) Math.cos(thetaOverTwo);
+		result[1] = wx * sinOverMagnitude;
+		result[2] = wy * sinOverMagnitude;
+		result[3] = wz * sinOverMagnitude;
+	}
+
+	/**
+	 * converts a 3x3 rotation matrix as calculated by {@link FusionFilter#getRotationMatrix(float[], float[], float[])} into a quaternion
+	 */
+	public static void fromRotationMatrix(final float[] r, final float[] result) {
+		final float trace = r[0] + r[4] + r[8];
+		/* use the largest diagonal element to stay numerically stable */
+		if (trace > 0.0f) {
+			final float s = 0.5f / (float) Math.sqrt(trace + 1.0f);
+			result[0] = 0.25f / s;
+			result[1] = (r[7] - r[5]) * s;
+			result[2] = (r[2] - r[6]) * s;
+			result[3] = (r[3] - r[1]) * s;
+		} else if (r[0] > r[4] && r[0] > r[8]) {
+			final float s = 2.0f * (float) Math.sqrt(1.0f + r[0] - r[4] - r[8]);
+			result[0] = (r[7] - r[5]) / s;
+			result[1] = 0.25f * s;
+			result[2] = (r[1] + r[3]) / s;
+			result[3] = (r[2] + r[6]) / s;
+		} else if (r[4] > r[8]) {
+			final float s = 2.0f * (float) Math.sqrt(1.0f + r[4] - r[0] - r[8]);
+			result[0] = (r[2] - r[6]) / s;
+			result[1] = (r[1] + r[3]) / s;
+			result[2] = 0.25f * s;
+			result[3] = (r[5] + r[7]) / s;
+		} else {
+			final float s = 2.0f * (float) Math.sqrt(1.0f + r[8] - r[0] - r[4]);
+			result[0] = (r[3] - r[1]) / s;
+			result[1] = (r[2] + r[6]) / s;
+			result[2] = (r[5] + r[7]) / s;
+			result[3] = 0.25f * s;
+		}
+		normalise(result);
+	}
+
+	/**
+	 * spherical linear interpolation between a and b along the shorter arc
+	 * 
+	 * @param t
+	 *            0 = a, 1 = b
+	 */
+	public static void slerp(final float[] a, final float[] b, final float t, final float[] result) {
+		float bw = b[0], bx = b[1], by = b[2], bz = b[3];
+		float dot = a[0] * bw + a[1] * bx + a[2] * by + a[3] * bz;
+		/* q and -q are the same rotation, take the shorter way */
+		if (dot < 0.0f) {
+			dot = -dot;
+			bw = -bw;
+			bx = -bx;
+			by = -by;
+			bz = -bz;
+		}
+
+		float weightA;
+		float weightB;
+		if (dot > SLERP_THRESHOLD) {
+			weightA = 1.0f - t;
+			weightB = t;
+		} else {
+			final float theta = (float) Math.acos(dot);
+			final float inverseSinTheta = 1.0f / (float) Math.sin(theta);
+			weightA = (float) Math.sin((1.0f - t) * theta) * inverseSinTheta;
+			weightB = (float) Math.sin(t * theta) * inverseSinTheta;
+		}
+
+		result[0] = weightA * a[0] + weightB * bw;
+		result[1] = weightA * a[1] + weightB * bx;
+		result[2] = weightA * a[2] + weightB * by;
+		result[3] = weightA * a[3] + weightB * bz;
+		normalise(result);
+	}
+
+	/**
+	 * calculates azimuth, pitch and roll the same way SensorManager.getOrientation does for the rotation matrix of the quaternion, only the
+	 * five needed matrix elements are calculated
+	 * 
+	 * @param orientation
+	 *            the array azimuth, pitch and roll are stored in (in radians)
+	 */
+	public static void toOrientation(final float[] q, final float[] orientation) {
+		final float w = q[0], x = q[1], y = q[2], z = q[3];
+
+		final float r1 = 2.0f * (x * y - w * z);
+		final float r4 = 1.0f - 2.0f * (x * x + z * z);
+		final float r6 = 2.0f * (x * z - w * y);
+		final float r7 = 2.0f * (y * z + w * x);
+		final float r8 = 1.0f - 2.0f * (x * x + y * y);
+
+		orientation[0] = (float) Math.atan2(r1, r4);
+		orientation[1] = (float) Math.asin(-Math.max(-1.0f, Math.min(1.0f, r7)));
+		orientation[2] = (float) Math.atan2(-r6, r8);
+	}
+}
@@ -0,0 +1,45 @@
+package at.codecomb.sensorfusion;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = SensorTrace.java
+ * 
+ * This source is subject to Code Comb. 
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software 
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+/**
+ * binary format of the sensor traces written by {@link SensorTraceRecorder} and read by {@link SensorTraceReplay}. A trace starts with the magic
+ * number and the version (an int each), followed by one record per sensor event: the sensor type (byte, see MotionFusion.TYPE_*), the timestamp in
+ * nanoseconds (long) and the first three values (float each), all big-endian. A record with type 0 marks the end of a trace which was not closed.
+ * 
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+final class SensorTrace {
+	/* "MSTR" */
+	static final int MAGIC = 0x4D535452;
+	static final int VERSION = 1;
+
+	static final int HEADER_LENGTH = 8;
+	static final int RECORD_LENGTH = 1 + 8 + 3 * 4;
+
+	private SensorTrace() {
+	}
+}
@@ -0,0 +1,130 @@
+package at.codecomb.sensorfusion;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = SensorTraceRecorder.java
+ * 
+ * This source is subject to Code Comb. 
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software 
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+/**
+ * records sensor events into a trace file (see {@link SensorTrace}). The file is memory-mapped in regions of MAPPING_LENGTH bytes, so recording an
+ * event only copies it into memory without a system call or an allocation, the operating system writes the pages back in the background. The file
+ * is truncated to the recorded events when the recorder is closed, if the process dies before, the trace ends with the first zeroed record.
+ * 
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+public class SensorTraceRecorder implements Closeable {
+	/* about 50000 events, a few minutes of all three sensors at their fastest rate */
+	private static final int MAPPING_LENGTH = 1024 * 1024;
+
+	private final RandomAccessFile mFile;
+	private final FileChannel mChannel;
+	private MappedByteBuffer mBuffer;
+	/* position of mBuffer within the file */
+	private long mMappingPosition;
+	private boolean mClosed;
+
+	/**
+	 * creates the trace file, an existing file is overwritten
+	 * 
+	 * @param file
+	 *            the file the trace is written to
+	 * @throws IOException
+	 *             if the file couldn't be created or mapped
+	 */
+	public SensorTraceRecorder(final File file) throws IOException {
+		mFile = new RandomAccessFile(file, "rw");
+		mChannel = mFile.getChannel();
+		try {
+			mFile.setLength(0);
+			map(0);
+			mBuffer.putInt(SensorTrace.MAGIC);
+			mBuffer.putInt(SensorTrace.VERSION);
+		} catch (IOException e) {
+			mFile.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * records a sensor event, events recorded after the recorder has been closed are dropped
+	 * 
+	 * @param type
+	 *            the type of the sensor, e.g. MotionFusion.TYPE_GYROSCOPE
+	 * @param timestamp
+	 *            the timestamp of the event in nanoseconds
+	 * @param values
+	 *            the event's values, only the first three are recorded
+	 * @throws IOException
+	 *             if the next region of the file couldn't be mapped
+	 */
+	public synchronized void record(final int type, final long timestamp, final float[] values) throws IOException {
+		if (mClosed) {
+			return;
+		}
+		if (mBuffer.remaining() < SensorTrace.RECORD_LENGTH) {
+			map(mMappingPosition + mBuffer.position());
+		}
+
+		mBuffer.put((byte) type);
+		mBuffer.putLong(timestamp);
+		mBuffer.putFloat(values[0]);
+		mBuffer.putFloat(values[1]);
+		mBuffer.putFloat(values[2]);
+	}
+
+	/**
+	 * writes the recorded events to the file and truncates it to their length
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (mClosed) {
+			return;
+		}
+		mClosed = true;
+
+		try {
+			mBuffer.force();
+			final long length = mMappingPosition + mBuffer.position();
+			/* the mapping is released by the garbage collector, only after that the file is really shrunk on some systems */
+			mBuffer = null;
+			mChannel.truncate(length);
+		} finally {
+			mFile.close();
+		}
+	}
+
+	private void map(final long position) throws IOException {
+		if (mBuffer != null) {
+			mBuffer.force();
+		}
+		mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, position, MAPPING_LENGTH);
+		mMappingPosition = position;
+	}
+}
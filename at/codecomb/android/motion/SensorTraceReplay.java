@@ -0,0 +1,133 @@
+package at.codecomb.sensorfusion;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = SensorTraceReplay.java
+ * 
+ * This source is subject to Code Comb. 
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software 
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+/**
+ * replays a recorded sensor trace (see {@link SensorTraceRecorder}) into a {@link MotionFusion} on the JVM, either at the speed the events were
+ * recorded at or as fast as possible. Replaying the same trace into the same kind of filter always calculates the same angles, so traces can be
+ * used for regression tests of the angles and for benchmarks of the fusion.
+ * 
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+public final class SensorTraceReplay {
+	/**
+	 * invoked each time the replayed events led to new angles
+	 */
+	public interface OnAnglesCalculatedListener {
+		/**
+		 * @param timestamp
+		 *            the timestamp of the event which led to the angles in nanoseconds
+		 * @param motionFusion
+		 *            the MotionFusion the angles can be read from
+		 */
+		public void onAnglesCalculated(final long timestamp, final MotionFusion motionFusion);
+	}
+
+	private SensorTraceReplay() {
+	}
+
+	/**
+	 * replays a trace into the given MotionFusion on the calling thread
+	 * 
+	 * @param file
+	 *            the trace
+	 * @param motionFusion
+	 *            the MotionFusion the events are passed to
+	 * @param realTime
+	 *            true to wait between the events as long as between their timestamps, false to replay them as fast as possible
+	 * @param listener
+	 *            invoked each time new angles have been calculated, may be null
+	 * @return the number of events replayed
+	 * @throws IOException
+	 *             if the file couldn't be read or isn't a trace
+	 */
+	public static int replay(final File file, final MotionFusion motionFusion, final boolean realTime, final OnAnglesCalculatedListener listener)
+			throws IOException {
+		final MappedByteBuffer buffer;
+		final RandomAccessFile trace = new RandomAccessFile(file, "r");
+		try {
+			buffer = trace.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, trace.length());
+		} finally {
+			/* the mapping stays valid after the file has been closed */
+			trace.close();
+		}
+
+		if (buffer.remaining() < SensorTrace.HEADER_LENGTH || buffer.getInt() != SensorTrace.MAGIC) {
+			throw new IOException(file + " is no sensor trace");
+		}
+		final int version = buffer.getInt();
+		if (version != SensorTrace.VERSION) {
+			throw new IOException("unsupported version " + version + " of " + file);
+		}
+
+		final float[] values = new float[3];
+		final long start = System.nanoTime();
+		long firstTimestamp = 0;
+		int events = 0;
+		while (buffer.remaining() >= SensorTrace.RECORD_LENGTH) {
+			final int type = buffer.get();
+			/* zeroed rest of a trace which hasn't been closed */
+			if (type == 0) {
+				break;
+			}
+			final long timestamp = buffer.getLong();
+			values[0] = buffer.getFloat();
+			values[1] = buffer.getFloat();
+			values[2] = buffer.getFloat();
+
+			if (realTime) {
+				if (events == 0) {
+					firstTimestamp = timestamp;
+				}
+				waitUntil(start + timestamp - firstTimestamp);
+			}
+
+			if (motionFusion.onSensorChanged(type, timestamp, values) && listener != null) {
+				listener.onAnglesCalculated(timestamp, motionFusion);
+			}
+			events++;
+		}
+		return events;
+	}
+
+	private static void waitUntil(final long nanoTime) throws IOException {
+		long remaining;
+		while ((remaining = nanoTime - System.nanoTime()) > 0) {
+			LockSupport.parkNanos(remaining);
+			if (Thread.currentThread().isInterrupted()) {
+				throw new InterruptedIOException("replay has been interrupted");
+			}
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package at.codecomb.util.concurrent;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = LimitedExecutor.java
+ *
+ * This source is subject to Code Comb.
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Runs commands on a shared {@link Executor}, but never more than a limited amount of them at the
+ * same time. Further commands wait in a queue of their own until a running one has finished, so
+ * they don't occupy the threads the shared executor keeps for its other users.
+ *
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+public class LimitedExecutor implements Executor {
+	private final Executor mExecutor;
+	/* commands waiting for one of the running ones to finish */
+	private final Queue<Runnable> mCommands = new ConcurrentLinkedQueue<Runnable>();
+	private final AtomicInteger mRunning = new AtomicInteger();
+	private volatile int mLimit;
+
+	/**
+	 * @param executor
+	 *            the executor providing the threads
+	 * @param limit
+	 *            the maximum amount of commands running at the same time
+	 */
+	public LimitedExecutor(final Executor executor, final int limit) {
+		mExecutor = executor;
+		setLimit(limit);
+	}
+
+	/**
+	 * changes the maximum amount of commands running at the same time, commands already running
+	 * aren't affected
+	 *
+	 * @param limit
+	 *            the maximum amount of commands running at the same time
+	 */
+	public void setLimit(final int limit) {
+		if (limit < 1) {
+			throw new IllegalArgumentException("invalid limit " + limit);
+		}
+		mLimit = limit;
+		drain();
+	}
+
+	public int getLimit() {
+		return mLimit;
+	}
+
+	@Override
+	public void execute(final Runnable command) {
+		if (command == null) {
+			throw new NullPointerException("command must not be null");
+		}
+		mCommands.offer(command);
+		drain();
+	}
+
+	/* hands over queued commands as long as the limit allows it */
+	private void drain() {
+		while (!mCommands.isEmpty()) {
+			int running = mRunning.get();
+			if (running >= mLimit) {
+				/* the command finishing next drains the queue again */
+				return;
+			}
+			if (!mRunning.compareAndSet(running, running + 1)) {
+				continue;
+			}
+			final Runnable command = mCommands.poll();
+			if (command == null) {
+				mRunning.decrementAndGet();
+				continue;
+			}
+			mExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						command.run();
+					} finally {
+						mRunning.decrementAndGet();
+						drain();
+					}
+				}
+			});
+		}
+	}
+}
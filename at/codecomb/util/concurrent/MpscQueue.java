@@ -0,0 +1,113 @@
+package at.codecomb.util.concurrent;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = MpscQueue.java
+ *
+ * This source is subject to Code Comb.
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * A lock-free FIFO queue for many producing threads and exactly one consuming thread. Producers
+ * only swap the tail with a single atomic operation, so {@link #offer(Object) offer} never blocks
+ * and never waits for the consumer. {@link #poll() poll} and {@link #isEmpty() isEmpty} must only
+ * be called by the one consuming thread, both are O(1).
+ *
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+public class MpscQueue<E> {
+	/* last node added, shared between all producers */
+	private final AtomicReference<Node<E>> mTail;
+	/* already consumed node in front of the first element, only touched by the consumer */
+	private Node<E> mHead;
+
+	public MpscQueue() {
+		Node<E> stub = new Node<E>(null);
+		mHead = stub;
+		mTail = new AtomicReference<Node<E>>(stub);
+	}
+
+	/**
+	 * adds an element at the end of the queue, can be called from any thread
+	 *
+	 * @param element
+	 *            the element to be added, must not be null
+	 */
+	public void offer(final E element) {
+		if (element == null) {
+			throw new NullPointerException("MpscQueue does not accept null elements");
+		}
+
+		Node<E> node = new Node<E>(element);
+		/* claim the tail first and link the previous node afterwards */
+		Node<E> previous = mTail.getAndSet(node);
+		previous.mNext = node;
+	}
+
+	/**
+	 * removes and returns the first element of the queue, may only be called from the consuming
+	 * thread
+	 *
+	 * @return the first element or null if the queue is empty
+	 */
+	public E poll() {
+		Node<E> next = mHead.mNext;
+		if (next == null) {
+			return null;
+		}
+
+		E element = next.mElement;
+		/* the node becomes the new head, release the element for the garbage collector */
+		next.mElement = null;
+		mHead = next;
+		return element;
+	}
+
+	/**
+	 * returns the first element of the queue without removing it, may only be called from the
+	 * consuming thread
+	 *
+	 * @return the first element or null if the queue is empty
+	 */
+	public E peek() {
+		Node<E> next = mHead.mNext;
+		return next == null ? null : next.mElement;
+	}
+
+	/**
+	 * may only be called from the consuming thread
+	 *
+	 * @return true if there is no element linked into the queue
+	 */
+	public boolean isEmpty() {
+		return mHead.mNext == null;
+	}
+
+	private static final class Node<E> {
+		private E mElement;
+		private volatile Node<E> mNext;
+
+		private Node(final E element) {
+			mElement = element;
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package at.codecomb.util.thread;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = Lane.java
+ * 
+ * This source is subject to Code Comb. 
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software 
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+/**
+ * A serial lane of work running on a shared {@link Executor} instead of a thread of its own. It
+ * drains all the work available once it is signalled, but it only occupies a thread of the executor
+ * while doing so. At most one {@link #work()} call of a lane runs at a
+ * time, so the work of a lane keeps its order, while any number of lanes share the same threads.
+ * A lane which is signalled again while working is queued behind the other lanes instead of
+ * keeping its thread.
+ * <p>
+ * Lanes must not block on each other: if every thread of a bounded executor runs a lane waiting for
+ * the work of a queued lane, that lane never gets a thread.
+ * <p>
+ * {@link #shutdown()} drains the work available once more, {@link #awaitTermination(long, TimeUnit)}
+ * waits until the lane doesn't occupy a thread anymore. The owner of the lane decides whether
+ * further work is accepted, the executor can be shut down once all its lanes have terminated.
+ * 
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+abstract public class Lane implements Runnable {
+	private final String mName;
+	private final Executor mExecutor;
+	/* true --> there may be work */
+	private final AtomicBoolean mSignalled = new AtomicBoolean();
+	/* true --> the lane is queued in or running on the executor */
+	private final AtomicBoolean mScheduled = new AtomicBoolean();
+	/* true --> awaitTermination is notified once the lane is idle */
+	private volatile boolean mShutdown;
+
+	/**
+	 * @param name
+	 *            the name of the lane, given to the thread while it runs the lane
+	 * @param executor
+	 *            the executor providing the threads
+	 */
+	public Lane(final String name, final Executor executor) {
+		mName = name;
+		mExecutor = executor;
+	}
+
+	public String getName() {
+		return mName;
+	}
+
+	/**
+	 * queues the lane on the executor unless it is queued or running already, can be called from
+	 * any thread at any time
+	 */
+	public void signal() {
+		mSignalled.set(true);
+		if (mScheduled.compareAndSet(false, true)) {
+			mExecutor.execute(this);
+		}
+	}
+
+	@Override
+	public void run() {
+		Thread thread = Thread.currentThread();
+		String name = thread.getName();
+		thread.setName(mName);
+		try {
+			/* consume the signal before working, a signal during work() queues the lane again */
+			mSignalled.set(false);
+			work();
+		} finally {
+			thread.setName(name);
+			mScheduled.set(false);
+			if (mSignalled.get() && mScheduled.compareAndSet(false, true)) {
+				mExecutor.execute(this);
+			} else if (mShutdown) {
+				synchronized (this) {
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * drains the work available once more, e.g. before the executor is shut down. The lane can
+	 * still be signalled afterwards, so its owner has to stop adding work first.
+	 */
+	public void shutdown() {
+		mShutdown = true;
+		signal();
+	}
+
+	public boolean isShutdown() {
+		return mShutdown;
+	}
+
+	/**
+	 * waits until the lane has been shut down and has drained its work
+	 * 
+	 * @param timeout
+	 *            the maximum time to wait
+	 * @param unit
+	 *            the unit of the timeout
+	 * @return true if the lane is idle, false if the timeout elapsed before
+	 * @throws InterruptedException
+	 *             if the calling thread has been interrupted while waiting
+	 */
+	public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		synchronized (this) {
+			while (!mShutdown || mScheduled.get()) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					return false;
+				}
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * processes all the work available, called after every signal
+	 */
+	abstract public void work();
+}
@@ -28,12 +28,15 @@ package at.codecomb.util.thread;
  * even more expansive, this Thread can be used instead of using simple threads. This thread can be
  * paused and resumed when needed again, the method which does the work can be overriden when
  * creating a PausableThread since it's being abstract.
+ * <p>
+ * Every call of {@link #resumeThread()} is followed by a call of work(), even if it happens while
+ * work() is still running or before the thread has been started.
  * 
  * @author David Riedl (Code Comb)
- * @version 2.1
+ * @version 2.2
  */
 abstract public class PausableThread extends Thread {
-	/* Lock for Thread-Safety */
+	/* Lock for Thread-Safety, guards all of the following fields */
 	private final Object mPauseLock = new Object();
 	/* true --> the thread autopauses itself after each call of work() */
 	private boolean mAutoPause;
@@ -41,15 +44,12 @@ abstract public class PausableThread extends Thread {
 	private boolean mPaused;
 	/* true --> thread is done, so it can run out */
 	private boolean mFinished;
-	/* true --> actually did one step and can be resumed (safety) */
-	private boolean mStarted;
-	private int mCycleAmount;
-	private final Object mCycleAmountLock = new Object();
+	/* true --> resumed since the last call of work() started, so it is called once more */
+	private boolean mResumed;
 
 	public PausableThread() {
 		mPaused = false;
 		mFinished = false;
-		setCycleAmount(0);
 	}
 
 	public PausableThread(final boolean autoPause) {
@@ -60,34 +60,32 @@ abstract public class PausableThread extends Thread {
 	@Override
 	public void run() {
 		/* run until mFinished == true */
-		while (!mFinished) {
+		while (true) {
 			/* get the lock */
 			synchronized (mPauseLock) {
-				/* if being paused */
-				while (mPaused && getCycleAmount() == 0) {
+				/* if being paused, checked under the lock so no resumeThread() or done() is missed */
+				while (!mFinished && mPaused && !mResumed) {
 					try {
-						/* if it is the first cycle set mStarted to true */
-						if (!mStarted) {
-							mStarted = true;
-						}
 						/* wait till resumeThread() or done() are being called */
 						mPauseLock.wait();
 					} catch (InterruptedException e) {
-						e.printStackTrace();
+						/* interrupting the thread makes it run out */
+						mFinished = true;
 					}
 				}
+				if (mFinished) {
+					return;
+				}
+				mResumed = false;
 			}
 
-			/* if not finished yet call work() */
-			if (!mFinished) {
-				work();
-			}
-
-			decrementCycleAmount();
+			work();
 
-			/* if autopause is activated, the thread pauses itself */
-			if (mAutoPause) {
-				mPaused = true;
+			/* if autopause is activated, the thread pauses itself, a resume meanwhile is kept */
+			synchronized (mPauseLock) {
+				if (mAutoPause) {
+					mPaused = true;
+				}
 			}
 		}
 	}
@@ -96,54 +94,21 @@ abstract public class PausableThread extends Thread {
 	 * pauses the thread, and prevents work() from being called
 	 */
 	public void pauseThread() {
-		// /* get the lock and set paused to true */
+		/* get the lock and set paused to true */
 		synchronized (mPauseLock) {
 			mPaused = true;
 		}
 	}
 
-	private void incrementCycleAmount() {
-		synchronized (mCycleAmountLock) {
-			mCycleAmount++;
-		}
-	}
-
-	private void decrementCycleAmount() {
-		synchronized (mCycleAmountLock) {
-			mCycleAmount--;
-		}
-	}
-
-	private void setCycleAmount(final int amount) {
-		synchronized (mCycleAmountLock) {
-			mCycleAmount = amount;
-		}
-	}
-
-	private int getCycleAmount() {
-		synchronized (mCycleAmountLock) {
-			return mCycleAmount;
-		}
-	}
-
 	/**
 	 * resume the thread again
 	 */
 	public void resumeThread() {
-		incrementCycleAmount();
-
-		/* get the lock and set paused to false */
+		/* get the lock, set paused to false and notify the thread in case it is waiting */
 		synchronized (mPauseLock) {
 			mPaused = false;
-
-			/* if the thread hasn't started yet (safety matter) */
-			if (mStarted) {
-				/* actually wait till the thread is really waiting or the notify is lost */
-				if (this.getState() == Thread.State.WAITING) {
-					/* get the lock again and notify the waiting thread */
-					mPauseLock.notifyAll();
-				}
-			}
+			mResumed = true;
+			mPauseLock.notifyAll();
 		}
 	}
 
@@ -154,10 +119,7 @@ abstract public class PausableThread extends Thread {
 		/* get the lock set finished to true and notify the thread */
 		synchronized (mPauseLock) {
 			mFinished = true;
-			/* wait till the thread is waiting or the notify is lost */
-			if (this.getState() == Thread.State.WAITING) {
-				mPauseLock.notifyAll();
-			}
+			mPauseLock.notifyAll();
 		}
 	}
 
@@ -169,7 +131,9 @@ abstract public class PausableThread extends Thread {
 	 *            true = activated, false = deactivated
 	 */
 	public void setAutoPause(boolean autoPause) {
-		mAutoPause = autoPause;
+		synchronized (mPauseLock) {
+			mAutoPause = autoPause;
+		}
 	}
 
 	/**
@@ -0,0 +1,94 @@
+package at.codecomb.sensorfusion;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = FusionFilterBenchmark.java
+ * 
+ * This source is subject to Code Comb. 
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software 
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * JMH benchmark of the cost per sensor event of each fusion filter, replaying the synthetic trace of the tests (see SyntheticMotion) through
+ * {@link MotionFusion} with the angles calculated after every gyroscope event. FusionFilterTest measures the accuracy on the same trace, so CPU
+ * time and accuracy can be traded per device class. "none" fuses only the accelerometer and the compass, like devices without a gyroscope.
+ * 
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FusionFilterBenchmark {
+	@Param({ "none", "complementary", "madgwick", "kalman" })
+	public String mFilter;
+
+	private SyntheticMotion mMotion;
+	private MotionFusion mMotionFusion;
+	private final float[] mValues = new float[3];
+	private int mEvent;
+	/* added to the timestamps, so they keep increasing while the trace is replayed again and again */
+	private long mOffset;
+
+	@Setup
+	public void setUp() {
+		mMotion = new SyntheticMotion(10, true, 1L);
+		mMotionFusion = new MotionFusion(createFilter(mFilter));
+		mMotionFusion.setOutputRate(0);
+	}
+
+	@Benchmark
+	public boolean onSensorChanged() {
+		final boolean calculated = mMotion.replay(mEvent, mOffset, mMotionFusion, mValues);
+		if (++mEvent == mMotion.size()) {
+			mEvent = 0;
+			mOffset += mMotion.getDuration();
+		}
+		return calculated;
+	}
+
+	private static FusionFilter createFilter(final String name) {
+		if ("none".equals(name)) {
+			return null;
+		} else if ("complementary".equals(name)) {
+			return new ComplementaryFilter();
+		} else if ("madgwick".equals(name)) {
+			return new MadgwickFilter();
+		} else if ("kalman".equals(name)) {
+			return new KalmanFilter();
+		}
+		throw new IllegalArgumentException("unknown filter " + name);
+	}
+}
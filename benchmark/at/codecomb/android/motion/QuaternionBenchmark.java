@@ -0,0 +1,149 @@
+package at.codecomb.sensorfusion;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = QuaternionBenchmark.java
+ * 
+ * This source is subject to Code Comb. 
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software 
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * JMH benchmark of integrating one gyroscope event and calculating the angles from it, with quaternions as MotionSensor does now and with the
+ * 3x3 rotation matrices it used before (SensorManager.getRotationMatrixFromVector, a matrix multiplication and SensorManager.getOrientation,
+ * reimplemented without allocating so only the arithmetic is compared).
+ * 
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuaternionBenchmark {
+	private static final int EVENTS = 1024;
+	private static final float DT = 0.005f;
+
+	/* angular velocities of the gyroscope events (x, y, z) */
+	private final float[] mRates = new float[EVENTS * 3];
+	private int mEvent;
+
+	private final float[] mQuaternion = new float[4];
+	private final float[] mDelta = new float[4];
+
+	private final float[] mMatrix = new float[9];
+	private final float[] mDeltaMatrix = new float[9];
+	private final float[] mProduct = new float[9];
+
+	private final float[] mOrientation = new float[3];
+
+	@Setup
+	public void setUp() {
+		final Random random = new Random(1L);
+		for (int i = 0; i < mRates.length; i++) {
+			mRates[i] = (float) random.nextGaussian();
+		}
+		Quaternion.setIdentity(mQuaternion);
+		mMatrix[0] = mMatrix[4] = mMatrix[8] = 1.0f;
+	}
+
+	@Benchmark
+	public float quaternion() {
+		final int i = nextEvent();
+		Quaternion.fromAngularVelocity(mRates[i], mRates[i + 1], mRates[i + 2], DT, mDelta);
+		Quaternion.multiply(mQuaternion, mDelta, mQuaternion);
+		Quaternion.normalise(mQuaternion);
+		Quaternion.toOrientation(mQuaternion, mOrientation);
+		return mOrientation[0] + mOrientation[1] + mOrientation[2];
+	}
+
+	@Benchmark
+	public float rotationMatrix() {
+		final int i = nextEvent();
+		final float wx = mRates[i], wy = mRates[i + 1], wz = mRates[i + 2];
+
+		/* the delta rotation vector as in the sample of SensorEvent.values */
+		final float omegaMagnitude = (float) Math.sqrt(wx * wx + wy * wy + wz * wz);
+		final float thetaOverTwo = omegaMagnitude * DT / 2.0f;
+		final float sinOverMagnitude = (float) Math.sin(thetaOverTwo) / omegaMagnitude;
+		rotationMatrixFromVector(wx * sinOverMagnitude, wy * sinOverMagnitude, wz * sinOverMagnitude, (float) Math.cos(thetaOverTwo),
+				mDeltaMatrix);
+
+		multiply(mMatrix, mDeltaMatrix, mProduct);
+		System.arraycopy(mProduct, 0, mMatrix, 0, 9);
+
+		/* SensorManager.getOrientation */
+		mOrientation[0] = (float) Math.atan2(mMatrix[1], mMatrix[4]);
+		mOrientation[1] = (float) Math.asin(-mMatrix[7]);
+		mOrientation[2] = (float) Math.atan2(-mMatrix[6], mMatrix[8]);
+		return mOrientation[0] + mOrientation[1] + mOrientation[2];
+	}
+
+	private int nextEvent() {
+		final int event = mEvent;
+		mEvent = (event + 1) % EVENTS;
+		return event * 3;
+	}
+
+	/* SensorManager.getRotationMatrixFromVector */
+	private static void rotationMatrixFromVector(final float q1, final float q2, final float q3, final float q0, final float[] r) {
+		final float sqQ1 = 2 * q1 * q1;
+		final float sqQ2 = 2 * q2 * q2;
+		final float sqQ3 = 2 * q3 * q3;
+		final float q1q2 = 2 * q1 * q2;
+		final float q3q0 = 2 * q3 * q0;
+		final float q1q3 = 2 * q1 * q3;
+		final float q2q0 = 2 * q2 * q0;
+		final float q2q3 = 2 * q2 * q3;
+		final float q1q0 = 2 * q1 * q0;
+
+		r[0] = 1 - sqQ2 - sqQ3;
+		r[1] = q1q2 - q3q0;
+		r[2] = q1q3 + q2q0;
+		r[3] = q1q2 + q3q0;
+		r[4] = 1 - sqQ1 - sqQ3;
+		r[5] = q2q3 - q1q0;
+		r[6] = q1q3 - q2q0;
+		r[7] = q2q3 + q1q0;
+		r[8] = 1 - sqQ1 - sqQ2;
+	}
+
+	private static void multiply(final float[] a, final float[] b, final float[] result) {
+		for (int row = 0; row < 3; row++) {
+			for (int column = 0; column < 3; column++) {
+				result[row * 3 + column] = a[row * 3] * b[column] + a[row * 3 + 1] * b[3 + column] + a[row * 3 + 2] * b[6 + column];
+			}
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package at.codecomb.sensorfusion;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = FusionFilterTest.java
+ * 
+ * This source is subject to Code Comb. 
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software 
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * measures how close each fusion filter stays to the true orientation of a recorded trace of a device turning around all three axes. The trace is
+ * noisy and the gyroscope has a bias, so the gyroscope alone drifts away while the filters have to correct it with the accelerometer and the
+ * compass. The first seconds are skipped, the filters start from the noisy orientation of the accelerometer and the compass.
+ * 
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+public class FusionFilterTest {
+	private static final int SECONDS = 60;
+	private static final long SETTLING_TIME = 5000000000L;
+
+	private SyntheticMotion mMotion;
+	private File mTrace;
+
+	@Before
+	public void setUp() throws IOException {
+		mMotion = new SyntheticMotion(SECONDS, true, 42L);
+		mTrace = File.createTempFile("motion", ".trace");
+		mMotion.record(mTrace);
+	}
+
+	@After
+	public void tearDown() {
+		mTrace.delete();
+	}
+
+	@Test
+	public void gyroscopeAloneDrifts() throws IOException {
+		/* never corrected, so the bias of the gyroscope adds up */
+		final Error error = replay(new FusionFilter() {
+			private final float[] mDelta = new float[4];
+
+			@Override
+			protected void onAccelerometerCompass(final float[] gravity, final float[] geomagnetic, final float[] rotationMatrix) {
+			}
+
+			@Override
+			protected void onGyroscope(final float[] rates, final float dt) {
+				Quaternion.fromAngularVelocity(rates[0], rates[1], rates[2], dt, mDelta);
+				Quaternion.multiply(mOrientation, mDelta, mOrientation);
+				Quaternion.normalise(mOrientation);
+			}
+		});
+		assertTrue(error.toString(), error.mMaximum > Math.toRadians(10));
+	}
+
+	@Test
+	public void complementaryFilterFollowsTrace() throws IOException {
+		final Error error = replay(new ComplementaryFilter());
+		assertError(error, 2.0, 4.0);
+	}
+
+	@Test
+	public void madgwickFilterFollowsTrace() throws IOException {
+		final Error error = replay(new MadgwickFilter());
+		assertError(error, 3.0, 6.0);
+	}
+
+	@Test
+	public void kalmanFilterFollowsTrace() throws IOException {
+		final Error error = replay(new KalmanFilter());
+		assertError(error, 1.0, 3.0);
+	}
+
+	/* replays the recorded trace and compares the fused orientation with the true one after every gyroscope event */
+	private Error replay(final FusionFilter filter) throws IOException {
+		final Error error = new Error();
+		final float[] truth = new float[4];
+		final float[] fused = new float[4];
+		final MotionFusion motionFusion = new MotionFusion(filter);
+		/* calculate the angles after every gyroscope event */
+		motionFusion.setOutputRate(0);
+		final long[] start = new long[1];
+		final int events = SensorTraceReplay.replay(mTrace, motionFusion, false, new SensorTraceReplay.OnAnglesCalculatedListener() {
+			@Override
+			public void onAnglesCalculated(final long timestamp, final MotionFusion motionFusion) {
+				if (start[0] == 0) {
+					start[0] = timestamp;
+				}
+				if (timestamp - start[0] < SETTLING_TIME) {
+					return;
+				}
+				mMotion.getTruth(timestamp, truth);
+				filter.getQuaternion(fused);
+				error.add(SyntheticMotion.angleBetween(truth, fused));
+			}
+		});
+		assertEquals(mMotion.size(), events);
+		assertTrue(error.mSamples > 0);
+		return error;
+	}
+
+	/* the bounds in degrees, with some margin above what each filter achieves on this trace */
+	private static void assertError(final Error error, final double rms, final double maximum) {
+		assertTrue(error.toString(), error.getRms() < Math.toRadians(rms));
+		assertTrue(error.toString(), error.mMaximum < Math.toRadians(maximum));
+	}
+
+	private static class Error {
+		private int mSamples;
+		private double mSquares;
+		private float mMaximum;
+
+		private void add(final float error) {
+			mSamples++;
+			mSquares += error * error;
+			mMaximum = Math.max(mMaximum, error);
+		}
+
+		private double getRms() {
+			return Math.sqrt(mSquares / mSamples);
+		}
+
+		@Override
+		public String toString() {
+			return "error rms " + Math.toDegrees(getRms()) + " degrees, max " + Math.toDegrees(mMaximum) + " degrees";
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package at.codecomb.sensorfusion;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = MotionFusionAllocationTest.java
+ * 
+ * This source is subject to Code Comb. 
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software 
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * makes sure the fusion path does not allocate per sensor event, so it causes no garbage collections at the sensors' fastest rate. The bytes
+ * allocated by the calling thread are measured with HotSpot's ThreadMXBean, the test is skipped on VMs without it.
+ * 
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+public class MotionFusionAllocationTest {
+	/* the JIT has compiled the fusion path after replaying the events this often */
+	private static final int WARM_UP_ROUNDS = 5;
+	private static final int MEASURED_ROUNDS = 3;
+
+	private com.sun.management.ThreadMXBean mThreadBean;
+	private SyntheticMotion mMotion;
+	private final float[] mValues = new float[3];
+
+	@Before
+	public void setUp() {
+		final java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+		mThreadBean = (com.sun.management.ThreadMXBean) threadBean;
+		assumeTrue(mThreadBean.isThreadAllocatedMemorySupported());
+		mThreadBean.setThreadAllocatedMemoryEnabled(true);
+		mMotion = new SyntheticMotion(10, true, 1L);
+	}
+
+	@Test
+	public void accelerometerCompassOnlyDoesNotAllocate() {
+		assertEquals(0L, allocatedBytesPerReplay(new MotionFusion(null)));
+	}
+
+	@Test
+	public void complementaryFilterDoesNotAllocate() {
+		assertEquals(0L, allocatedBytesPerReplay(new MotionFusion(new ComplementaryFilter())));
+	}
+
+	@Test
+	public void madgwickFilterDoesNotAllocate() {
+		assertEquals(0L, allocatedBytesPerReplay(new MotionFusion(new MadgwickFilter())));
+	}
+
+	@Test
+	public void kalmanFilterDoesNotAllocate() {
+		assertEquals(0L, allocatedBytesPerReplay(new MotionFusion(new KalmanFilter())));
+	}
+
+	/*
+	 * replays all events into the MotionFusion and returns the bytes allocated meanwhile, without the cost of measuring. The JIT may still allocate
+	 * a few bytes on the calling thread once while it recompiles, so the least of several replays is taken, a single allocation per event would
+	 * show up in each of them.
+	 */
+	private long allocatedBytesPerReplay(final MotionFusion motionFusion) {
+		int round = 0;
+		while (round < WARM_UP_ROUNDS) {
+			replay(motionFusion, round++);
+		}
+		final long id = Thread.currentThread().getId();
+
+		long start = mThreadBean.getThreadAllocatedBytes(id);
+		final long overhead = mThreadBean.getThreadAllocatedBytes(id) - start;
+
+		long allocated = Long.MAX_VALUE;
+		for (int i = 0; i < MEASURED_ROUNDS; i++) {
+			start = mThreadBean.getThreadAllocatedBytes(id);
+			final int angles = replay(motionFusion, round++);
+			allocated = Math.min(allocated, mThreadBean.getThreadAllocatedBytes(id) - start - overhead);
+			/* the events have to lead to angles, otherwise the fusion path hasn't been measured */
+			assertTrue(angles > 0);
+		}
+		return allocated;
+	}
+
+	/* replays the events once more, the timestamps have to keep increasing */
+	private int replay(final MotionFusion motionFusion, final int round) {
+		final long offset = round * mMotion.getDuration();
+		int angles = 0;
+		for (int i = 0; i < mMotion.size(); i++) {
+			if (mMotion.replay(i, offset, motionFusion, mValues)) {
+				angles++;
+			}
+		}
+		return angles;
+	}
+}
@@ -0,0 +1,177 @@
+package at.codecomb.sensorfusion;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = QuaternionTest.java
+ * 
+ * This source is subject to Code Comb. 
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software 
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * checks the quaternion operations against the rotation matrices and Euler angles they replace
+ * 
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+public class QuaternionTest {
+	private static final float EPSILON = 0.0001f;
+
+	@Test
+	public void multiplyWithIdentityKeepsQuaternion() {
+		final float[] q = { 0.8f, 0.3f, -0.2f, 0.45f };
+		Quaternion.normalise(q);
+		final float[] identity = new float[4];
+		Quaternion.setIdentity(identity);
+		final float[] result = new float[4];
+
+		Quaternion.multiply(q, identity, result);
+		assertQuaternion(q, result);
+		/* the result may be one of the operands */
+		Quaternion.multiply(identity, result, result);
+		assertQuaternion(q, result);
+	}
+
+	@Test
+	public void fromAngularVelocityIntegratesConstantRate() {
+		final float[] orientation = new float[4];
+		final float[] delta = new float[4];
+		Quaternion.setIdentity(orientation);
+		/* 1 rad/s around z for one second in 100 steps */
+		for (int i = 0; i < 100; i++) {
+			Quaternion.fromAngularVelocity(0.0f, 0.0f, 1.0f, 0.01f, delta);
+			Quaternion.multiply(orientation, delta, orientation);
+		}
+		assertQuaternion(new float[] { (float) Math.cos(0.5), 0.0f, 0.0f, (float) Math.sin(0.5) }, orientation);
+
+		Quaternion.fromAngularVelocity(0.0f, 0.0f, 0.0f, 0.01f, delta);
+		assertQuaternion(new float[] { 1.0f, 0.0f, 0.0f, 0.0f }, delta);
+	}
+
+	@Test
+	public void fromRotationMatrixRestoresQuaternion() {
+		final float half = (float) Math.sqrt(0.5);
+		/* turned by 180 degrees around each axis the trace is negative, so every branch is used */
+		final float[][] quaternions = { { 1.0f, 0.0f, 0.0f, 0.0f }, { 0.0f, 1.0f, 0.0f, 0.0f }, { 0.0f, 0.0f, 1.0f, 0.0f },
+				{ 0.0f, 0.0f, 0.0f, 1.0f }, { half, half, 0.0f, 0.0f }, { 0.1f, 0.7f, -0.7f, 0.1f }, { 0.8f, 0.3f, -0.2f, 0.45f } };
+		final float[] matrix = new float[9];
+		final float[] result = new float[4];
+		for (final float[] q : quaternions) {
+			Quaternion.normalise(q);
+			toRotationMatrix(q, matrix);
+			Quaternion.fromRotationMatrix(matrix, result);
+			assertEquals(0.0f, SyntheticMotion.angleBetween(q, result), 0.001f);
+		}
+	}
+
+	/*
+	 * the angles of the quaternion calculated from the accelerometer and the compass have to be the ones SensorManager.getOrientation calculates
+	 * from the rotation matrix of SensorManager.getRotationMatrix
+	 */
+	@Test
+	public void toOrientationMatchesRotationMatrixAngles() {
+		final Random random = new Random(1L);
+		final float[] q = new float[4];
+		final float[] gravity = new float[3];
+		final float[] geomagnetic = new float[3];
+		final float[] matrix = new float[9];
+		final float[] quaternion = new float[4];
+		final float[] orientation = new float[3];
+		int compared = 0;
+		for (int i = 0; i < 10000; i++) {
+			q[0] = (float) random.nextGaussian();
+			q[1] = (float) random.nextGaussian();
+			q[2] = (float) random.nextGaussian();
+			q[3] = (float) random.nextGaussian();
+			Quaternion.normalise(q);
+			SyntheticMotion.toDevice(q, 0.0f, 0.0f, SyntheticMotion.GRAVITY, gravity);
+			SyntheticMotion.toDevice(q, 0.0f, SyntheticMotion.FIELD_NORTH, SyntheticMotion.FIELD_UP, geomagnetic);
+			assertTrue(FusionFilter.getRotationMatrix(matrix, gravity, geomagnetic));
+			/* azimuth and roll aren't defined while the device is upright */
+			if (Math.abs(matrix[7]) > 0.99f) {
+				continue;
+			}
+
+			Quaternion.fromRotationMatrix(matrix, quaternion);
+			Quaternion.toOrientation(quaternion, orientation);
+			assertEquals(Math.atan2(matrix[1], matrix[4]), orientation[0], EPSILON);
+			assertEquals(Math.asin(-matrix[7]), orientation[1], EPSILON);
+			assertEquals(Math.atan2(-matrix[6], matrix[8]), orientation[2], EPSILON);
+			compared++;
+		}
+		assertTrue(compared > 9000);
+	}
+
+	@Test
+	public void slerpInterpolatesAlongShorterArc() {
+		final float[] identity = new float[4];
+		Quaternion.setIdentity(identity);
+		final float[] quarter = { (float) Math.cos(Math.PI / 4), (float) Math.sin(Math.PI / 4), 0.0f, 0.0f };
+		final float[] result = new float[4];
+
+		Quaternion.slerp(identity, quarter, 0.0f, result);
+		assertQuaternion(identity, result);
+		Quaternion.slerp(identity, quarter, 1.0f, result);
+		assertQuaternion(quarter, result);
+		Quaternion.slerp(identity, quarter, 0.5f, result);
+		assertQuaternion(new float[] { (float) Math.cos(Math.PI / 8), (float) Math.sin(Math.PI / 8), 0.0f, 0.0f }, result);
+
+		/* -q is the same rotation, interpolating towards it must not take the long way around */
+		final float[] negated = { -quarter[0], -quarter[1], -quarter[2], -quarter[3] };
+		Quaternion.slerp(identity, negated, 0.5f, result);
+		assertQuaternion(new float[] { (float) Math.cos(Math.PI / 8), (float) Math.sin(Math.PI / 8), 0.0f, 0.0f }, result);
+	}
+
+	@Test
+	public void normaliseFallsBackToIdentity() {
+		final float[] q = { 0.0f, 0.0f, 0.0f, 0.0f };
+		Quaternion.normalise(q);
+		assertQuaternion(new float[] { 1.0f, 0.0f, 0.0f, 0.0f }, q);
+
+		final float[] scaled = { 2.0f, 0.0f, 0.0f, 2.0f };
+		Quaternion.normalise(scaled);
+		assertQuaternion(new float[] { (float) Math.sqrt(0.5), 0.0f, 0.0f, (float) Math.sqrt(0.5) }, scaled);
+	}
+
+	/* the rotation matrix from the device's to the world's coordinate system, like getRotationMatrix calculates it */
+	private static void toRotationMatrix(final float[] q, final float[] r) {
+		final float w = q[0], x = q[1], y = q[2], z = q[3];
+		r[0] = 1 - 2 * (y * y + z * z);
+		r[1] = 2 * (x * y - w * z);
+		r[2] = 2 * (x * z + w * y);
+		r[3] = 2 * (x * y + w * z);
+		r[4] = 1 - 2 * (x * x + z * z);
+		r[5] = 2 * (y * z - w * x);
+		r[6] = 2 * (x * z - w * y);
+		r[7] = 2 * (y * z + w * x);
+		r[8] = 1 - 2 * (x * x + y * y);
+	}
+
+	private static void assertQuaternion(final float[] expected, final float[] actual) {
+		for (int i = 0; i < 4; i++) {
+			assertEquals(expected[i], actual[i], EPSILON);
+		}
+	}
+}
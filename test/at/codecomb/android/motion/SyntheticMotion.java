@@ -0,0 +1,210 @@
+package at.codecomb.sensorfusion;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = SyntheticMotion.java
+ * 
+ * This source is subject to Code Comb. 
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software 
+ * is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * a synthetic recording of a device turning around all three axes, together with its true orientation. The gyroscope runs at 200 Hz, the
+ * accelerometer at 100 Hz and the compass at 50 Hz, the noisy version adds white noise to every sensor and a constant bias to the gyroscope, so
+ * the gyroscope alone drifts away from the true orientation. The same seed always creates the same events.
+ * 
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+final class SyntheticMotion {
+	static final float GRAVITY = 9.80665f;
+	/* the earth's magnetic field in the world frame in microtesla, pointing north and down like in central Europe */
+	static final float FIELD_NORTH = 21.0f;
+	static final float FIELD_UP = -43.0f;
+
+	static final long GYROSCOPE_INTERVAL = 5000000L;
+	private static final int ACCELEROMETER_DIVIDER = 2;
+	private static final int COMPASS_DIVIDER = 4;
+	/* timestamp of the first event, like the uptime based timestamps of Android */
+	private static final long START = 1000000000L;
+
+	/* standard deviations of the noise and the gyroscope's bias */
+	private static final float GYROSCOPE_NOISE = 0.01f;
+	private static final float[] GYROSCOPE_BIAS = { 0.012f, -0.008f, 0.01f };
+	private static final float ACCELEROMETER_NOISE = 0.05f;
+	private static final float COMPASS_NOISE = 0.5f;
+
+	private final int mEvents;
+	private final int[] mTypes;
+	private final long[] mTimestamps;
+	/* three values per event */
+	private final float[] mValues;
+	/* the true orientation (w, x, y, z) after each gyroscope event, indexed by the gyroscope event */
+	private final float[] mTruth;
+
+	/**
+	 * @param seconds
+	 *            the length of the recording
+	 * @param noisy
+	 *            true to add noise and the gyroscope's bias
+	 * @param seed
+	 *            the seed of the noise
+	 */
+	SyntheticMotion(final int seconds, final boolean noisy, final long seed) {
+		final int ticks = (int) (seconds * 1000000000L / GYROSCOPE_INTERVAL);
+		final int capacity = ticks * 2 + ticks / ACCELEROMETER_DIVIDER + ticks / COMPASS_DIVIDER + 2;
+		mTypes = new int[capacity];
+		mTimestamps = new long[capacity];
+		mValues = new float[capacity * 3];
+		mTruth = new float[ticks * 4];
+
+		final Random random = new Random(seed);
+		final float dt = GYROSCOPE_INTERVAL / 1000000000.0f;
+		final float[] orientation = new float[4];
+		final float[] delta = new float[4];
+		final float[] vector = new float[3];
+		/* starts tilted and turned away from north, so no axis is aligned with the world */
+		orientation[0] = 0.8f;
+		orientation[1] = 0.3f;
+		orientation[2] = -0.2f;
+		orientation[3] = 0.45f;
+		Quaternion.normalise(orientation);
+
+		int events = 0;
+		for (int tick = 0; tick < ticks; tick++) {
+			final long timestamp = START + tick * GYROSCOPE_INTERVAL;
+			final double t = tick * (double) dt;
+
+			/* the gyroscope measures the rotation since its last event */
+			final float wx = (float) (0.8 * Math.sin(2 * Math.PI * 0.23 * t));
+			final float wy = (float) (0.6 * Math.sin(2 * Math.PI * 0.17 * t + 1.0));
+			final float wz = (float) (1.0 * Math.sin(2 * Math.PI * 0.11 * t + 2.0));
+			if (tick > 0) {
+				Quaternion.fromAngularVelocity(wx, wy, wz, dt, delta);
+				Quaternion.multiply(orientation, delta, orientation);
+				Quaternion.normalise(orientation);
+			}
+			System.arraycopy(orientation, 0, mTruth, tick * 4, 4);
+			vector[0] = wx;
+			vector[1] = wy;
+			vector[2] = wz;
+			if (noisy) {
+				for (int i = 0; i < 3; i++) {
+					vector[i] += GYROSCOPE_BIAS[i] + GYROSCOPE_NOISE * (float) random.nextGaussian();
+				}
+			}
+			events = add(events, MotionFusion.TYPE_GYROSCOPE, timestamp, vector);
+
+			/* accelerometer and compass measure the orientation the gyroscope event led to */
+			if (tick % COMPASS_DIVIDER == 0) {
+				toDevice(orientation, 0.0f, FIELD_NORTH, FIELD_UP, vector);
+				addNoise(vector, noisy ? COMPASS_NOISE : 0.0f, random);
+				events = add(events, MotionFusion.TYPE_MAGNETIC_FIELD, timestamp, vector);
+			}
+			if (tick % ACCELEROMETER_DIVIDER == 0) {
+				/* at rest the accelerometer measures the reaction to gravity, pointing up */
+				toDevice(orientation, 0.0f, 0.0f, GRAVITY, vector);
+				addNoise(vector, noisy ? ACCELEROMETER_NOISE : 0.0f, random);
+				events = add(events, MotionFusion.TYPE_ACCELEROMETER, timestamp, vector);
+			}
+		}
+		mEvents = events;
+	}
+
+	int size() {
+		return mEvents;
+	}
+
+	/**
+	 * @return the time from the first to the event after the last one in nanoseconds
+	 */
+	long getDuration() {
+		return mTimestamps[mEvents - 1] + GYROSCOPE_INTERVAL - START;
+	}
+
+	/**
+	 * passes the given event to the MotionFusion
+	 * 
+	 * @param offset
+	 *            added to the timestamp, a multiple of {@link #getDuration()} to replay the events once more
+	 * @return true if new angles have been calculated
+	 */
+	boolean replay(final int event, final long offset, final MotionFusion motionFusion, final float[] values) {
+		System.arraycopy(mValues, event * 3, values, 0, 3);
+		return motionFusion.onSensorChanged(mTypes[event], mTimestamps[event] + offset, values);
+	}
+
+	/**
+	 * writes all events to a trace which can be replayed by {@link SensorTraceReplay}
+	 */
+	void record(final File file) throws IOException {
+		final SensorTraceRecorder recorder = new SensorTraceRecorder(file);
+		try {
+			final float[] values = new float[3];
+			for (int i = 0; i < mEvents; i++) {
+				System.arraycopy(mValues, i * 3, values, 0, 3);
+				recorder.record(mTypes[i], mTimestamps[i], values);
+			}
+		} finally {
+			recorder.close();
+		}
+	}
+
+	/**
+	 * @param timestamp
+	 *            the timestamp of a gyroscope event
+	 * @param orientation
+	 *            the array the true orientation after the event is stored in (w, x, y, z)
+	 */
+	void getTruth(final long timestamp, final float[] orientation) {
+		System.arraycopy(mTruth, (int) ((timestamp - START) / GYROSCOPE_INTERVAL) * 4, orientation, 0, 4);
+	}
+
+	/**
+	 * @return the angle of the rotation from a to b in radians
+	 */
+	static float angleBetween(final float[] a, final float[] b) {
+		final float dot = Math.abs(a[0] * b[0] + a[1] * b[1] + a[2] * b[2] + a[3] * b[3]);
+		return 2.0f * (float) Math.acos(Math.min(1.0f, dot));
+	}
+
+	/* rotates a vector of the world frame into the device's frame with the transposed rotation matrix of q */
+	static void toDevice(final float[] q, final float x, final float y, final float z, final float[] result) {
+		final float w = q[0], qx = q[1], qy = q[2], qz = q[3];
+		result[0] = (1 - 2 * (qy * qy + qz * qz)) * x + 2 * (qx * qy + w * qz) * y + 2 * (qx * qz - w * qy) * z;
+		result[1] = 2 * (qx * qy - w * qz) * x + (1 - 2 * (qx * qx + qz * qz)) * y + 2 * (qy * qz + w * qx) * z;
+		result[2] = 2 * (qx * qz + w * qy) * x + 2 * (qy * qz - w * qx) * y + (1 - 2 * (qx * qx + qy * qy)) * z;
+	}
+
+	private static void addNoise(final float[] vector, final float deviation, final Random random) {
+		for (int i = 0; i < 3; i++) {
+			vector[i] += deviation * (float) random.nextGaussian();
+		}
+	}
+
+	private int add(final int event, final int type, final long timestamp, final float[] values) {
+		mTypes[event] = type;
+		mTimestamps[event] = timestamp;
+		System.arraycopy(values, 0, mValues, event * 3, 3);
+		return event + 1;
+	}
+}
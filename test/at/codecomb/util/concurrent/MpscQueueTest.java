@@ -0,0 +1,120 @@
+package at.codecomb.util.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/*
+ * Copyright (c) 2013, All Rights Reserved, file = MpscQueueTest.java
+ *
+ * This source is subject to Code Comb.
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the Software
+ * is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Stress test of {@link MpscQueue} with several producers racing against the consumer.
+ *
+ * @author David Riedl (Code Comb)
+ * @version 1.0
+ */
+public class MpscQueueTest {
+	private static final int PRODUCERS = 4;
+	private static final int ELEMENTS_PER_PRODUCER = 250000;
+	private static final long TIMEOUT = TimeUnit.SECONDS.toNanos(60);
+
+	@Test
+	public void keepsOrderOfSingleProducer() {
+		MpscQueue<Integer> queue = new MpscQueue<Integer>();
+		assertTrue(queue.isEmpty());
+		for (int i = 0; i < 10; i++) {
+			queue.offer(i);
+		}
+		for (int i = 0; i < 10; i++) {
+			assertEquals(Integer.valueOf(i), queue.peek());
+			assertEquals(Integer.valueOf(i), queue.poll());
+		}
+		assertNull(queue.poll());
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void rejectsNull() {
+		new MpscQueue<Object>().offer(null);
+	}
+
+	/*
+	 * every producer offers an ascending sequence while the consumer polls concurrently. Each
+	 * element has to arrive exactly once and in the order of its producer.
+	 */
+	@Test
+	public void keepsOrderPerProducerWithoutLosingElements() throws InterruptedException {
+		final MpscQueue<long[]> queue = new MpscQueue<long[]>();
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] producers = new Thread[PRODUCERS];
+		for (int p = 0; p < PRODUCERS; p++) {
+			final int producer = p;
+			producers[p] = new Thread("producer-" + p) {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int i = 0; i < ELEMENTS_PER_PRODUCER; i++) {
+						queue.offer(new long[] { producer, i });
+					}
+				}
+			};
+			producers[p].start();
+		}
+
+		int[] expected = new int[PRODUCERS];
+		int received = 0;
+		final long deadline = System.nanoTime() + TIMEOUT;
+		start.countDown();
+		while (received < PRODUCERS * ELEMENTS_PER_PRODUCER) {
+			long[] element = queue.poll();
+			if (element == null) {
+				/* empty, or a producer has claimed the tail but not linked its node yet */
+				assertTrue("only " + received + " elements received", System.nanoTime() - deadline < 0);
+				Thread.yield();
+				continue;
+			}
+			int producer = (int) element[0];
+			assertEquals("order of producer " + producer, expected[producer], element[1]);
+			expected[producer]++;
+			received++;
+		}
+
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		assertNull(queue.poll());
+		assertTrue(queue.isEmpty());
+		for (int p = 0; p < PRODUCERS; p++) {
+			assertEquals(ELEMENTS_PER_PRODUCER, expected[p]);
+		}
+	}
+}